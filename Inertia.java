@@ -1,11 +1,45 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 import javax.swing.*;
 
  class Inertia extends JFrame {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--replay")) {
+            Replayer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length >= 3 && args[0].equals("--selfplay")) {
+            SelfPlay.run(Integer.parseInt(args[1]), Long.parseLong(args[2]),
+                         args.length > 3 ? Integer.parseInt(args[3]) : 4);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            SolverService.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ((args.length == 4 || args.length == 5) && args[0].equals("--make-pack")) {
+            Difficulty difficulty = args.length == 5 ? Difficulty.valueOf(args[4].toUpperCase()) : Difficulty.NORMAL;
+            int written = LevelPack.generate(new File(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3]), difficulty);
+            System.out.println("Wrote " + written + " levels to " + args[1]);
+            return;
+        }
         SwingUtilities.invokeLater(() -> new Inertia().setVisible(true));
     }
 
@@ -13,13 +47,34 @@ import javax.swing.*;
     enum Cell { EMPTY, WALL, MINE, GEM, STOP, BLOCK }
     enum Turn { HUMAN, WAITING, COMPUTER, SOLVING }
     enum Quadrant { TOP_LEFT, TOP_RIGHT, BOTTOM_LEFT, BOTTOM_RIGHT, ALL }
+    enum AiMode { LOOKAHEAD, MCTS, GREEDY, ORACLE }
+    enum Mover { HUMAN, COMPUTER, SOLVER }
+
+    // Solver playback: timer delay and how many plan moves one tick may apply
+    enum PlaybackSpeed {
+        NORMAL(250, 1), FAST(60, 1), TURBO(15, 8), INSTANT(1, Integer.MAX_VALUE);
+        final int delayMs, movesPerTick;
+        PlaybackSpeed(int delayMs, int movesPerTick) { this.delayMs = delayMs; this.movesPerTick = movesPerTick; }
+    }
+
+    // Generator targets: inner slides planned per quadrant, where mines go relative to the plan (+1 onto
+    // the lines a wrong move takes, -1 away from them) and the band of solver moves aimed for
+    enum Difficulty {
+        EASY(2, -1, 8, 13), NORMAL(3, 0, 14, 19), HARD(4, 1, 20, 40);
+        final int slides, trapBias, minMoves, maxMoves;
+        Difficulty(int slides, int trapBias, int minMoves, int maxMoves) {
+            this.slides = slides;
+            this.trapBias = trapBias;
+            this.minMoves = minMoves;
+            this.maxMoves = maxMoves;
+        }
+    }
 
     static final class Vec {
         final int r, c;
         Vec(int r, int c) { this.r = r; this.c = c; }
-        Vec add(Vec o) { return new Vec(r + o.r, c + o.c); }
         @Override public boolean equals(Object o) { return (o instanceof Vec) && ((Vec)o).r == r && ((Vec)o).c == c; }
-        @Override public int hashCode() { return Objects.hash(r, c); }
+        @Override public int hashCode() { return 31 * r + c; }
         @Override public String toString() { return "(" + r + "," + c + ")"; }
     }
 
@@ -35,39 +90,345 @@ import javax.swing.*;
         new Vec(1, 1)    // SE
     };
 
+    static int dirIndex(Vec dir) { return dirIndex(dir.r, dir.c); }
+
+    static int dirIndex(int dr, int dc) {
+        for (int i = 0; i < DIRS.length; i++) if (DIRS[i].r == dr && DIRS[i].c == dc) return i;
+        return -1;
+    }
+
+    // ===== Bitboards (one bit per cell, index = r * cols + c) =====
+    static final class Bits {
+        private Bits() {}
+        static long[] create(int bits) { return new long[(bits + 63) >>> 6]; }
+        static long[] full(int bits) {
+            long[] b = create(bits);
+            for (int i = 0; i < bits; i++) set(b, i);
+            return b;
+        }
+        static boolean get(long[] b, int i) { return (b[i >>> 6] & (1L << i)) != 0; }
+        static void set(long[] b, int i) { b[i >>> 6] |= 1L << i; }
+        static void clear(long[] b, int i) { b[i >>> 6] &= ~(1L << i); }
+
+        static int count(long[] b) {
+            int n = 0;
+            for (long w : b) n += Long.bitCount(w);
+            return n;
+        }
+
+        static int countAnd(long[] a, long[] b) {
+            int n = 0;
+            for (int i = 0; i < a.length; i++) n += Long.bitCount(a[i] & b[i]);
+            return n;
+        }
+
+        static boolean isEmpty(long[] b) {
+            long acc = 0;
+            for (long w : b) acc |= w;
+            return acc == 0;
+        }
+
+        static boolean intersects(long[] a, long[] b) {
+            for (int i = 0; i < a.length; i++) if ((a[i] & b[i]) != 0) return true;
+            return false;
+        }
+
+        // Every bit of a is also set in b.
+        static boolean subset(long[] a, long[] b) {
+            for (int i = 0; i < a.length; i++) if ((a[i] & ~b[i]) != 0) return false;
+            return true;
+        }
+
+        // Clears every bit of mask in target, returns how many were set.
+        static int clearAll(long[] target, long[] mask) {
+            int n = 0;
+            for (int i = 0; i < target.length; i++) {
+                n += Long.bitCount(target[i] & mask[i]);
+                target[i] &= ~mask[i];
+            }
+            return n;
+        }
+
+        // a without the bits of mask, copied only when they overlap so an unchanged set stays shared
+        static long[] minus(long[] a, long[] mask) {
+            if (!intersects(a, mask)) return a;
+            long[] out = a.clone();
+            clearAll(out, mask);
+            return out;
+        }
+
+        static long[] and(long[] a, long[] b) {
+            long[] out = new long[a.length];
+            for (int i = 0; i < a.length; i++) out[i] = a[i] & b[i];
+            return out;
+        }
+
+        // Index of the next set bit at or after from, or -1.
+        static int next(long[] b, int from) {
+            int w = from >>> 6;
+            if (w >= b.length) return -1;
+            long word = b[w] & (-1L << from);
+            while (true) {
+                if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == b.length) return -1;
+                word = b[w];
+            }
+        }
+    }
+
+    // ===== Primitive hash set of non-negative longs (open addressing, no boxing) =====
+    static final class LongSet {
+        private static final long FREE = -1;
+        private long[] keys;
+        private int size;
+
+        LongSet(int expected) {
+            keys = new long[Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1];
+            Arrays.fill(keys, FREE);
+        }
+
+        int size() { return size; }
+
+        boolean contains(long key) {
+            int m = keys.length - 1;
+            for (int i = slot(key, m); keys[i] != FREE; i = (i + 1) & m)
+                if (keys[i] == key) return true;
+            return false;
+        }
+
+        // Returns false when the key was already present.
+        boolean add(long key) {
+            int m = keys.length - 1;
+            int i = slot(key, m);
+            for (; keys[i] != FREE; i = (i + 1) & m)
+                if (keys[i] == key) return false;
+            keys[i] = key;
+            if (++size * 2 > keys.length) rehash();
+            return true;
+        }
+
+        private void rehash() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            Arrays.fill(keys, FREE);
+            int m = keys.length - 1;
+            for (long k : old) {
+                if (k == FREE) continue;
+                int i = slot(k, m);
+                while (keys[i] != FREE) i = (i + 1) & m;
+                keys[i] = k;
+            }
+        }
+
+        static int slot(long key, int m) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & m;
+        }
+    }
+
+    // ===== Primitive long -> int map, same open addressing as LongSet =====
+    static final class LongIntMap {
+        private static final long FREE = -1;
+        private long[] keys;
+        private int[] values;
+        private int size;
+
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE);
+        }
+
+        int size() { return size; }
+
+        // The value for key, or -1 when it is absent
+        int get(long key) {
+            int m = keys.length - 1;
+            for (int i = LongSet.slot(key, m); keys[i] != FREE; i = (i + 1) & m)
+                if (keys[i] == key) return values[i];
+            return -1;
+        }
+
+        void put(long key, int value) {
+            int m = keys.length - 1;
+            int i = LongSet.slot(key, m);
+            for (; keys[i] != FREE; i = (i + 1) & m) {
+                if (keys[i] == key) { values[i] = value; return; }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size * 2 > keys.length) rehash();
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, FREE);
+            int m = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == FREE) continue;
+                int i = LongSet.slot(oldKeys[j], m);
+                while (keys[i] != FREE) i = (i + 1) & m;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
     static final class Grid {
-        final int rows, cols;
-        final Cell[][] cells;
+        // Packed slide result: landing cell index plus a flag when the slide ends on a mine
+        static final int SLIDE_MINE = 1 << 30;
+        static final int SLIDE_CELL = SLIDE_MINE - 1;
+
+        // Cell flags in the padded byte grid; the one-cell border is all WALL
+        static final byte WALL = 1, BLOCK = 2, MINE = 4, STOP = 8, SOLID = WALL | BLOCK;
+
+        final int rows, cols, size;
+        final int stride;                         // padded row length, cols + 2
+        final byte[] flags;                       // (rows + 2) * stride, row-major with the border
+        final int[] steps = new int[DIRS.length]; // padded index delta per direction
+        final long[] walls, blocks, mines, stops;
+        final long[][] quadrants = new long[4][]; // indexed by Quadrant.ordinal()
+        final long[] full;                        // every cell, the scope of Quadrant.ALL; never written
+        private final int[] slides;               // cell * 8 + dir -> packed slide result
+        private final Vec[] vecs;                 // interned coordinates, one per cell
+        private final long[][] rays;              // cell * 8 + dir -> cells crossed
+
         Grid(Cell[][] cells) {
             this.rows = cells.length;
             this.cols = cells[0].length;
-            this.cells = cells;
+            this.size = rows * cols;
+            this.stride = cols + 2;
+            this.flags = new byte[(rows + 2) * stride];
+            Arrays.fill(flags, WALL);
+            for (int d = 0; d < DIRS.length; d++) steps[d] = DIRS[d].r * stride + DIRS[d].c;
+            this.walls = Bits.create(size);
+            this.blocks = Bits.create(size);
+            this.mines = Bits.create(size);
+            this.stops = Bits.create(size);
+            for (int q = 0; q < 4; q++) quadrants[q] = Bits.create(size);
+            this.full = Bits.full(size);
+            this.vecs = new Vec[size];
+
+            int midR = rows / 2, midC = cols / 2;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int i = index(r, c);
+                    vecs[i] = new Vec(r, c);
+                    put(i, cells[r][c]);
+                    int q = (r < midR ? 0 : 2) + (c < midC ? 0 : 1);
+                    Bits.set(quadrants[q], i);
+                }
+            }
+
+            // Built eagerly: the grid is shared read-only with background searches
+            this.slides = new int[size * DIRS.length];
+            this.rays = new long[size * DIRS.length][];
+            for (int i = 0; i < size; i++)
+                for (int d = 0; d < DIRS.length; d++)
+                    computeSlide(i, d);
         }
-        boolean inBounds(Vec v) { return v.r >= 0 && v.r < rows && v.c >= 0 && v.c < cols; }
-        Cell get(Vec v) { return cells[v.r][v.c]; }
-        boolean isWall(Vec v) { Cell c = get(v); return c == Cell.WALL || c == Cell.BLOCK; }
-    }
 
-    static final class Snapshot {
-        final Vec ball;
-        final boolean[][] gemPresent;
-        final int gemsCollected;
-        final int deaths;
-        final Quadrant currentQuadrant;
-        Snapshot(Vec ball, boolean[][] gemPresent, int gemsCollected, int deaths, Quadrant currentQuadrant) {
-            this.ball = new Vec(ball.r, ball.c);
-            this.gemPresent = deepCopy(gemPresent);
-            this.gemsCollected = gemsCollected;
-            this.deaths = deaths;
-            this.currentQuadrant = currentQuadrant;
+        // Shares the coordinates, quadrants and every ray; with() replaces what changes
+        private Grid(Grid base) {
+            this.rows = base.rows;
+            this.cols = base.cols;
+            this.size = base.size;
+            this.stride = base.stride;
+            this.flags = base.flags.clone();
+            System.arraycopy(base.steps, 0, steps, 0, steps.length);
+            this.walls = base.walls.clone();
+            this.blocks = base.blocks.clone();
+            this.mines = base.mines.clone();
+            this.stops = base.stops.clone();
+            System.arraycopy(base.quadrants, 0, quadrants, 0, quadrants.length);
+            this.full = base.full;
+            this.vecs = base.vecs;
+            this.slides = base.slides.clone();
+            this.rays = base.rays.clone();
         }
-        static boolean[][] deepCopy(boolean[][] src) {
-            boolean[][] out = new boolean[src.length][src[0].length];
-            for (int i = 0; i < src.length; i++) System.arraycopy(src[i], 0, out[i], 0, src[i].length);
-            return out;
+
+        // A copy with one cell changed. Only slides that can reach the cell are recomputed: its own,
+        // and on each of the 8 lines through it those from cells up to the first one that stops a ball.
+        Grid with(int cell, Cell type) {
+            Grid g = new Grid(this);
+            g.put(cell, type);
+            int r0 = row(cell), c0 = col(cell);
+            for (int d = 0; d < DIRS.length; d++) {
+                g.computeSlide(cell, d);
+                int dr = DIRS[d].r, dc = DIRS[d].c;
+                for (int r = r0 - dr, c = c0 - dc; r >= 0 && r < rows && c >= 0 && c < cols; r -= dr, c -= dc) {
+                    int from = index(r, c);
+                    g.computeSlide(from, d);
+                    if ((g.flags[padded(from)] & (SOLID | MINE | STOP)) != 0) break;
+                }
+            }
+            return g;
+        }
+
+        private void put(int i, Cell type) {
+            Bits.clear(walls, i);
+            Bits.clear(blocks, i);
+            Bits.clear(mines, i);
+            Bits.clear(stops, i);
+            byte f = 0;
+            switch (type) {
+                case WALL: Bits.set(walls, i); f = WALL; break;
+                case BLOCK: Bits.set(blocks, i); f = BLOCK; break;
+                case MINE: Bits.set(mines, i); f = MINE; break;
+                case STOP: Bits.set(stops, i); f = STOP; break;
+                default: break;
+            }
+            flags[padded(i)] = f;
+        }
+
+        int index(int r, int c) { return r * cols + c; }
+        int index(Vec v) { return v.r * cols + v.c; }
+        int row(int i) { return i / cols; }
+        int col(int i) { return i % cols; }
+        Vec vec(int i) { return vecs[i]; }
+        Vec vec(int r, int c) { return vecs[r * cols + c]; }
+
+        int padded(int i) { return (i / cols + 1) * stride + i % cols + 1; }
+        int unpadded(int p) { return (p / stride - 1) * cols + p % stride - 1; }
+
+        Cell cell(int r, int c) {
+            switch (flags[(r + 1) * stride + c + 1]) {
+                case WALL: return Cell.WALL;
+                case BLOCK: return Cell.BLOCK;
+                case MINE: return Cell.MINE;
+                case STOP: return Cell.STOP;
+                default: return Cell.EMPTY;
+            }
+        }
+
+        int slide(int cell, int dir) { return slides[cell * DIRS.length + dir]; }
+        static int end(int slide) { return slide & SLIDE_CELL; }
+        static boolean hitsMine(int slide) { return (slide & SLIDE_MINE) != 0; }
+
+        // Every cell the ball passes over (landing cell included) for this slide
+        long[] ray(int cell, int dir) { return rays[cell * DIRS.length + dir]; }
+
+        // Steps through the padded grid; the border stops every slide, so there are no bounds checks
+        private void computeSlide(int from, int dir) {
+            long[] ray = Bits.create(size);
+            int step = steps[dir];
+            int p = padded(from), result = -1;
+            while (true) {
+                int f = flags[p + step];
+                if ((f & SOLID) != 0) break;
+                p += step;
+                Bits.set(ray, unpadded(p));
+                if ((f & MINE) != 0) { result = unpadded(p) | SLIDE_MINE; break; }
+                if ((f & STOP) != 0) break;
+            }
+            slides[from * DIRS.length + dir] = result < 0 ? unpadded(p) : result;
+            rays[from * DIRS.length + dir] = ray;
         }
     }
-    
+
     private void reviveGameIfNeeded() {
         if (gameOver) {
             gameOver = false;
@@ -79,47 +440,53 @@ import javax.swing.*;
         }
     }
 
+    // One immutable version of a game. A move or a quadrant change makes a new GameState and leaves this
+    // one as it was, so the solver, AI, hint and paint code can keep any version without copying or
+    // locking. Versions share the grid, the record and, unless a move takes a gem, the gem words.
+    // The record is the one mutable part: a version only reads its first recorded moves, and only the
+    // game's own thread writes it, through Engine.apply and undo/redo.
     static final class GameState {
         final Grid grid;
-        Vec ball;                 // single shared pawn
-        boolean[][] gemPresent;
-        int totalGems;
-        int gemsCollected;
-        int deaths;
-        Quadrant currentQuadrant = Quadrant.ALL;
-        int[] quadrantGems = new int[4]; // gems per quadrant
-        boolean[] quadrantCompleted = new boolean[4];
-
-        final Deque<Snapshot> undo = new ArrayDeque<>();
-        final Deque<Snapshot> redo = new ArrayDeque<>();
-
-        GameState(Grid grid, Vec start, boolean[][] gemPresent, int totalGems) {
+        final Vec ball;               // single shared pawn
+        final long[] gems;            // remaining gems, one bit per cell; never written once published
+        final int totalGems;
+        final int gemsCollected;
+        final int deaths;
+        final Quadrant currentQuadrant;
+        final GameRecord record;      // the whole game's move log, shared by its versions
+        final int recorded;           // moves in the record at this version
+
+        GameState(Grid grid, Vec start, long[] gems, int totalGems, GameRecord record) {
+            this(grid, grid.vec(start.r, start.c), gems.clone(), totalGems, 0, 0, Quadrant.ALL, record, record.size());
+        }
+
+        private GameState(Grid grid, Vec ball, long[] gems, int totalGems, int gemsCollected, int deaths,
+                          Quadrant currentQuadrant, GameRecord record, int recorded) {
             this.grid = grid;
-            this.ball = start;
-            this.gemPresent = Snapshot.deepCopy(gemPresent);
+            this.ball = ball;
+            this.gems = gems;
             this.totalGems = totalGems;
-            this.gemsCollected = 0;
-            this.deaths = 0;
-            calculateQuadrantGems();
+            this.gemsCollected = gemsCollected;
+            this.deaths = deaths;
+            this.currentQuadrant = currentQuadrant;
+            this.record = record;
+            this.recorded = recorded;
         }
 
-        void calculateQuadrantGems() {
-            Arrays.fill(quadrantGems, 0);
-            int midR = grid.rows / 2;
-            int midC = grid.cols / 2;
-            
-            for (int r = 0; r < grid.rows; r++) {
-                for (int c = 0; c < grid.cols; c++) {
-                    if (gemPresent[r][c]) {
-                        if (r < midR && c < midC) quadrantGems[0]++; // TOP_LEFT
-                        else if (r < midR && c >= midC) quadrantGems[1]++; // TOP_RIGHT
-                        else if (r >= midR && c < midC) quadrantGems[2]++; // BOTTOM_LEFT
-                        else quadrantGems[3]++; // BOTTOM_RIGHT
-                    }
-                }
-            }
+        // The version after a slide that ended on cell; gems is shared when the slide took none
+        GameState moved(int cell, long[] gems, int gained, int deaths) {
+            return new GameState(grid, grid.vec(cell), gems, totalGems, gemsCollected + gained, deaths,
+                                 currentQuadrant, record, record.size());
         }
 
+        // This position with another quadrant selected; this version itself when it is already selected
+        GameState inQuadrant(Quadrant q) {
+            if (q == currentQuadrant) return this;
+            return new GameState(grid, ball, gems, totalGems, gemsCollected, deaths, q, record, recorded);
+        }
+
+        boolean hasGem(int r, int c) { return Bits.get(gems, grid.index(r, c)); }
+
         Quadrant getQuadrant(Vec pos) {
             int midR = grid.rows / 2;
             int midC = grid.cols / 2;
@@ -135,54 +502,13 @@ import javax.swing.*;
             return getQuadrant(pos) == currentQuadrant;
         }
 
-        void pushUndo() {
-            undo.push(new Snapshot(ball, gemPresent, gemsCollected, deaths, currentQuadrant));
-            redo.clear();
-        }
-
-        boolean undo() {
-            if (undo.isEmpty()) return false;
-            redo.push(new Snapshot(ball, gemPresent, gemsCollected, deaths, currentQuadrant));
-            Snapshot s = undo.pop();
-            restore(s);
-            return true;
-        }
-
-        boolean redo() {
-            if (redo.isEmpty()) return false;
-            undo.push(new Snapshot(ball, gemPresent, gemsCollected, deaths, currentQuadrant));
-            Snapshot s = redo.pop();
-            restore(s);
-            return true;
-        }
-
-        void restore(Snapshot s) {
-            this.ball = new Vec(s.ball.r, s.ball.c);
-            this.gemPresent = Snapshot.deepCopy(s.gemPresent);
-            this.gemsCollected = s.gemsCollected;
-            this.deaths = s.deaths;
-            this.currentQuadrant = s.currentQuadrant;
-        }
-
-        boolean allGemsCollected() { return gemsCollected >= totalGems; }
-        int remainingGems() { return Math.max(0, totalGems - gemsCollected); }
+        boolean allGemsCollected() { return Bits.isEmpty(gems); }
+        int remainingGems() { return Bits.count(gems); }
         
         // Check if current quadrant is complete
         boolean isCurrentQuadrantComplete() {
             if (currentQuadrant == Quadrant.ALL) return false;
-            int quadrantGemsRemaining = 0;
-            int midR = grid.rows / 2;
-            int midC = grid.cols / 2;
-            
-            for (int r = 0; r < grid.rows; r++) {
-                for (int c = 0; c < grid.cols; c++) {
-                    if (gemPresent[r][c]) {
-                        Quadrant q = getQuadrant(new Vec(r, c));
-                        if (q == currentQuadrant) quadrantGemsRemaining++;
-                    }
-                }
-            }
-            return quadrantGemsRemaining == 0;
+            return isQuadrantComplete(currentQuadrant);
         }
         
         // Move to next quadrant
@@ -210,18 +536,8 @@ import javax.swing.*;
         }
         
         boolean isQuadrantComplete(Quadrant q) {
-            int midR = grid.rows / 2;
-            int midC = grid.cols / 2;
-            
-            for (int r = 0; r < grid.rows; r++) {
-                for (int c = 0; c < grid.cols; c++) {
-                    if (gemPresent[r][c]) {
-                        Quadrant gemQ = getQuadrant(new Vec(r, c));
-                        if (gemQ == q) return false;
-                    }
-                }
-            }
-            return true;
+            if (q == Quadrant.ALL) return allGemsCollected();
+            return !Bits.intersects(gems, grid.quadrants[q.ordinal()]);
         }
         
         // Get list of quadrants that still have gems
@@ -239,12 +555,471 @@ import javax.swing.*;
         }
     }
 
+    // ===== Headless engine: the game rules over GameState and Grid, without any Swing =====
+    // Everything here works on the state passed in, so independent games can run on any threads.
+    static final class Engine {
+        static final int MAX_DEATHS = 3;
+
+        private Engine() {}
+
+        // What one applied move did to the game
+        static final class MoveEvent {
+            final Mover mover;
+            final int dir;
+            final Vec from, to;
+            final int gemsGained;
+            final boolean died;             // landed on a mine (solver moves never cost a life)
+            final boolean gameOver;         // deaths reached MAX_DEATHS with this move
+            final boolean completed;        // every gem is collected
+            final Quadrant nextQuadrant;    // quadrant the game advanced to, or null
+            final GameState state;          // the version after the move
+            MoveEvent(Mover mover, int dir, Vec from, Vec to, int gemsGained, boolean died,
+                      boolean gameOver, boolean completed, Quadrant nextQuadrant, GameState state) {
+                this.mover = mover; this.dir = dir; this.from = from; this.to = to;
+                this.gemsGained = gemsGained; this.died = died; this.gameOver = gameOver;
+                this.completed = completed; this.nextQuadrant = nextQuadrant; this.state = state;
+            }
+        }
+
+        // Outcome of a game played to the end headlessly
+        static final class GameSummary {
+            final int moves, gemsCollected, deaths;
+            final boolean completed;
+            GameSummary(int moves, int gemsCollected, int deaths, boolean completed) {
+                this.moves = moves; this.gemsCollected = gemsCollected; this.deaths = deaths; this.completed = completed;
+            }
+        }
+
+        // A move source for headless play: a direction index, or -1 to pass
+        interface Player {
+            int move(GameState st);
+            default void moved(MoveEvent move) {}
+        }
+
+        static SimResult simulate(GameState st, int dir) {
+            Grid g = st.grid;
+            int from = g.index(st.ball);
+            int slide = g.slide(from, dir);
+            int end = Grid.end(slide);
+            return new SimResult(g.vec(end), end != from, Grid.hitsMine(slide), Bits.countAnd(st.gems, g.ray(from, dir)));
+        }
+
+        static Vec preview(GameState st, int dir) {
+            Grid g = st.grid;
+            return g.vec(Grid.end(g.slide(g.index(st.ball), dir)));
+        }
+
+        // The ball moves and lands inside the current quadrant
+        static boolean isLegal(GameState st, int dir) {
+            Grid g = st.grid;
+            int from = g.index(st.ball);
+            int end = Grid.end(g.slide(from, dir));
+            return end != from && st.isInCurrentQuadrant(g.vec(end));
+        }
+
+        static long[] scope(GameState st) {
+            if (st.currentQuadrant == Quadrant.ALL) return st.grid.full;
+            return st.grid.quadrants[st.currentQuadrant.ordinal()];
+        }
+
+        // Slides the ball, collects gems, counts deaths, records the move and advances a finished quadrant.
+        // st's fields are left as they were and the move's state is the new version, but the move is written
+        // to the record st shares with its game, cutting off any moves recorded after st. Only the thread
+        // that owns the game may call this (the EDT for the frame).
+        static MoveEvent apply(GameState st, int dir, Mover mover) {
+            Grid g = st.grid;
+            Vec from = st.ball;
+            int start = g.index(from);
+            int slide = g.slide(start, dir);
+            long[] ray = g.ray(start, dir);
+            int gained = Bits.countAnd(st.gems, ray);
+            st.record.rewind(st.recorded);
+            st.record.add(dir, mover);
+
+            boolean died = Grid.hitsMine(slide);
+            int deaths = st.deaths + (died && mover != Mover.SOLVER ? 1 : 0);
+            boolean gameOver = deaths > st.deaths && deaths >= MAX_DEATHS;
+            GameState after = st.moved(Grid.end(slide), Bits.minus(st.gems, ray), gained, deaths);
+
+            Quadrant next = null;
+            if (mover != Mover.SOLVER && !gameOver
+                    && after.currentQuadrant != Quadrant.ALL && after.isCurrentQuadrantComplete()) {
+                Quadrant q = after.getNextQuadrant();
+                if (q != after.currentQuadrant) {
+                    after = after.inQuadrant(q);
+                    next = q;
+                }
+            }
+            return new MoveEvent(mover, dir, from, after.ball, gained, died, gameOver, after.allGemsCollected(), next, after);
+        }
+
+        // -Dinertia.solver=ida|bnb swaps the BFS solvers for depth-first ones with a fixed memory ceiling;
+        // dijkstra minimises the weighted slide cost instead of the move count
+        static final String SOLVER = System.getProperty("inertia.solver", "bfs").toLowerCase(Locale.ROOT);
+
+        static List<Integer> solveQuadrant(GameState st, Quadrant q, Consumer<SolverMetrics> sink) {
+            switch (SOLVER) {
+                case "ida": return new IdaStarSolver(IdaStarSolver.tableEntries()).solve(st, q, sink);
+                case "bnb": return new BranchAndBoundSolver().solve(st, q, sink);
+                case "dijkstra": return DijkstraSolver.fromProperty().solve(st, q, sink);
+                default: return bfsSolveQuadrant(st, q, sink);
+            }
+        }
+
+        // What the Solve button plays: every quadrant with gems left, in play order, cleared by its own plan
+        // from wherever the previous plan ended. Total moves, or -1 where the button would stop.
+        static int solveByQuadrant(GameState st) {
+            int moves = 0;
+            for (Quadrant q : st.getRemainingQuadrants()) {
+                if (st.isQuadrantComplete(q)) continue;   // cleared in passing on the way into an earlier one
+                st = st.inQuadrant(q);
+                List<Integer> plan = solveQuadrant(st, q, null);
+                if (plan == null || plan.isEmpty()) return -1;
+                for (int dir : plan) st = apply(st, dir, Mover.SOLVER).state;
+                if (!st.isCurrentQuadrantComplete()) return -1;
+                moves += plan.size();
+            }
+            return moves;
+        }
+
+        // Whole-board plan for the solve service. Its workers share one heap, so the BFS stores only the
+        // states it reaches instead of dense arrays sized for every (cell, mask) pair.
+        static List<Integer> solveAll(GameState st, Consumer<SolverMetrics> sink) {
+            switch (SOLVER) {
+                case "ida": return new IdaStarSolver(IdaStarSolver.tableEntries()).solve(st, Quadrant.ALL, sink);
+                case "bnb": return new BranchAndBoundSolver().solve(st, Quadrant.ALL, sink);
+                case "dijkstra": return DijkstraSolver.fromProperty().solve(st, Quadrant.ALL, sink);
+                default: return bfsSolveCurrentState(st, sink, true);
+            }
+        }
+
+        // Alternates human and computer moves until the game ends or maxMoves is reached
+        static GameSummary playOut(GameState st, Player human, Player computer, int maxMoves) {
+            int moves = 0;
+            boolean humanTurn = true;
+            int passes = 0;
+            while (moves < maxMoves && st.deaths < MAX_DEATHS && !st.allGemsCollected() && passes < 2) {
+                Player p = humanTurn ? human : computer;
+                int dir = p.move(st);
+                humanTurn = !humanTurn;
+                if (dir < 0) { passes++; continue; }
+                passes = 0;
+                MoveEvent move = apply(st, dir, p == human ? Mover.HUMAN : Mover.COMPUTER);
+                st = move.state;
+                human.moved(move);
+                computer.moved(move);
+                moves++;
+            }
+            return new GameSummary(moves, st.gemsCollected, st.deaths, st.allGemsCollected());
+        }
+
+        // One virtual thread per game where the runtime has them (JDK 21+), otherwise a pool per core
+        static ExecutorService newGameExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            }
+        }
+
+        // Runs independent games concurrently and returns their results in order
+        static <R> List<R> runAll(List<? extends Callable<R>> games, ExecutorService executor)
+                throws InterruptedException, ExecutionException {
+            List<R> out = new ArrayList<>(games.size());
+            for (Future<R> f : executor.invokeAll(games)) out.add(f.get());
+            return out;
+        }
+    }
+
+    // ===== Computer AI scoring weights (per move, on top of -1 per slide to the next gem) =====
+    static final class AiWeights {
+        static final AiWeights DEFAULT = new AiWeights(5, 100, 15, 10);
+
+        final int gem, mine, repeatLast, repeatPrev;
+
+        AiWeights(int gem, int mine, int repeatLast, int repeatPrev) {
+            this.gem = gem; this.mine = mine; this.repeatLast = repeatLast; this.repeatPrev = repeatPrev;
+        }
+
+        // "gem,mine,repeatLast,repeatPrev", as printed by toString and the self-play tuner
+        static AiWeights parse(String s) {
+            String[] p = s.split(",");
+            if (p.length != 4) throw new IllegalArgumentException("Expected gem,mine,repeatLast,repeatPrev: " + s);
+            return new AiWeights(Integer.parseInt(p[0].trim()), Integer.parseInt(p[1].trim()),
+                                 Integer.parseInt(p[2].trim()), Integer.parseInt(p[3].trim()));
+        }
+
+        static AiWeights fromProperty() {
+            String s = System.getProperty("inertia.aiWeights");
+            return s == null ? DEFAULT : parse(s);
+        }
+
+        int[] toArray() { return new int[] { gem, mine, repeatLast, repeatPrev }; }
+        static AiWeights of(int[] w) { return new AiWeights(w[0], w[1], w[2], w[3]); }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof AiWeights && Arrays.equals(toArray(), ((AiWeights) o).toArray());
+        }
+        @Override public int hashCode() { return Arrays.hashCode(toArray()); }
+        @Override public String toString() { return gem + "," + mine + "," + repeatLast + "," + repeatPrev; }
+    }
+
+    // ===== Greedy computer player (sorting + scoring), independent of the UI =====
+    static final class ComputerPlayer implements Engine.Player {
+        Vec lastEnd = null;   // AI memory to avoid oscillation patterns for shared ball
+        Vec prevEnd = null;
+        private final Random rng;
+        private final AiWeights weights;
+        private SlideDistance distanceField = null;
+
+        ComputerPlayer(Random rng) { this(rng, AiWeights.DEFAULT); }
+        ComputerPlayer(Random rng, AiWeights weights) { this.rng = rng; this.weights = weights; }
+
+        @Override public int move(GameState st) {
+            Vec target = findNearestGem(st, st.ball);
+            if (target == null) return -1;
+            Choice best = greedyChoice(st, target);
+            return best == null ? -1 : dirIndex(best.dir);
+        }
+
+        @Override public void moved(Engine.MoveEvent move) {
+            if (move.mover == Mover.COMPUTER) moved(move.to);
+        }
+
+        void moved(Vec end) {
+            prevEnd = lastEnd;
+            lastEnd = end;
+        }
+
+        Choice greedyChoice(GameState st, Vec target) {
+            // Build candidate moves with simulation and scoring
+            List<Choice> candidates = new ArrayList<>();
+            for (int d = 0; d < DIRS.length; d++) {
+                SimResult sim = Engine.simulate(st, d);
+                if (!sim.moved) continue;
+
+                // Check if move stays in current quadrant
+                if (!st.isInCurrentQuadrant(sim.end) && st.currentQuadrant != Quadrant.ALL) continue;
+
+                int score = 0;
+                score += weights.gem * sim.gemsGained;
+                score -= sim.hitMine ? weights.mine : 0;
+                score -= moveDistance(st, sim.end, target);
+                if (lastEnd != null && sim.end.equals(lastEnd)) score -= weights.repeatLast;
+                if (prevEnd != null && sim.end.equals(prevEnd)) score -= weights.repeatPrev;
+                candidates.add(new Choice(DIRS[d], sim.end, score, sim.hitMine, sim.gemsGained));
+            }
+
+            if (candidates.isEmpty()) return null;
+
+            Collections.shuffle(candidates, rng);
+            mergeSortChoices(candidates);
+            return candidates.get(candidates.size() - 1);
+        }
+
+        // Gem the fewest slides away (per the distance field), else the Manhattan-nearest one in scope
+        Vec findNearestGem(GameState st, Vec from) {
+            int target = distanceField(st).target(st.grid.index(from));
+            if (target >= 0) return st.grid.vec(target);
+
+            int bestDist = Integer.MAX_VALUE;
+            Vec best = null;
+            for (int i = Bits.next(st.gems, 0); i >= 0; i = Bits.next(st.gems, i + 1)) {
+                Vec g = st.grid.vec(i);
+                if (!st.isInCurrentQuadrant(g)) continue;
+                int d = manhattan(from, g);
+                if (d < bestDist) { bestDist = d; best = g; }
+            }
+            return best;
+        }
+
+        private static int manhattan(Vec a, Vec b) { return Math.abs(a.r - b.r) + Math.abs(a.c - b.c); }
+
+        // Slides from a landing cell to the next gem pickup; unreachable cells rank behind every reachable one
+        private int moveDistance(GameState st, Vec from, Vec target) {
+            int d = distanceField(st).distance(st.grid.index(from));
+            return d == SlideDistance.INF ? st.grid.rows + st.grid.cols + manhattan(from, target) : d;
+        }
+
+        SlideDistance distanceField(GameState st) {
+            long[] scope = Engine.scope(st);
+            if (distanceField == null || distanceField.grid != st.grid || !Arrays.equals(distanceField.scope, scope)) {
+                distanceField = new SlideDistance(st.grid, scope, st.gems);
+            } else {
+                distanceField.update(st.gems);
+            }
+            return distanceField;
+        }
+    }
+
+    // ===== Self-play: seeded human-proxy vs. computer games for tuning AiWeights =====
+    // Every configuration plays the same levels and seeds, so differences come from the weights alone.
+    static final class SelfPlay {
+        static final int MAX_MOVES = 400;
+        static final double HUMAN_MISTAKES = 0.25;   // chance the proxy plays a random legal move
+
+        // Totals over a batch of games for one weight configuration
+        static final class Stats {
+            long games, completed, deaths, movesToComplete;
+
+            void add(Engine.GameSummary g) {
+                games++;
+                deaths += g.deaths;
+                if (g.completed) { completed++; movesToComplete += g.moves; }
+            }
+            void add(Stats o) {
+                games += o.games; completed += o.completed; deaths += o.deaths; movesToComplete += o.movesToComplete;
+            }
+            double winRate() { return games == 0 ? 0 : (double) completed / games; }
+            double avgDeaths() { return games == 0 ? 0 : (double) deaths / games; }
+            double avgMoves() { return completed == 0 ? MAX_MOVES : (double) movesToComplete / completed; }
+
+            // Higher is better: win rate first, then fewer moves to finish
+            boolean betterThan(Stats o) {
+                if (completed != o.completed) return winRate() > o.winRate();
+                return avgMoves() < o.avgMoves();
+            }
+
+            @Override public String toString() {
+                return String.format("win %.2f%%, deaths %.3f, moves %.1f (%d games)",
+                                     100 * winRate(), avgDeaths(), avgMoves(), games);
+            }
+        }
+
+        // Stand-in for a human: grabs gems and avoids mines, with occasional random moves
+        static final class HumanProxy implements Engine.Player {
+            private final SplittableRandom rnd;
+            private final int[] legal = new int[DIRS.length];
+
+            HumanProxy(long seed) { rnd = new SplittableRandom(seed); }
+
+            @Override public int move(GameState st) {
+                int n = 0, best = -1, bestScore = Integer.MIN_VALUE;
+                for (int d = 0; d < DIRS.length; d++) {
+                    if (!Engine.isLegal(st, d)) continue;
+                    legal[n++] = d;
+                    SimResult sim = Engine.simulate(st, d);
+                    int score = (sim.hitMine ? -100 : 0) + 5 * sim.gemsGained + rnd.nextInt(3);
+                    if (score > bestScore) { bestScore = score; best = d; }
+                }
+                if (n == 0) return -1;
+                return rnd.nextDouble() < HUMAN_MISTAKES ? legal[rnd.nextInt(n)] : best;
+            }
+        }
+
+        final List<GameState> levels;
+        final long seed;
+        final int games;
+        final ExecutorService pool;
+
+        SelfPlay(List<GameState> levels, int games, long seed, ExecutorService pool) {
+            this.levels = levels;
+            this.games = games;
+            this.seed = seed;
+            this.pool = pool;
+        }
+
+        // Plays every game once with the given weights, split into one chunk per worker
+        Stats evaluate(AiWeights weights) throws InterruptedException, ExecutionException {
+            int chunks = Math.max(1, Math.min(games, Runtime.getRuntime().availableProcessors() * 4));
+            List<Callable<Stats>> tasks = new ArrayList<>();
+            for (int k = 0; k < chunks; k++) {
+                int from = (int) ((long) games * k / chunks), to = (int) ((long) games * (k + 1) / chunks);
+                tasks.add(() -> {
+                    Stats st = new Stats();
+                    for (int i = from; i < to; i++) st.add(play(weights, i));
+                    return st;
+                });
+            }
+            Stats total = new Stats();
+            for (Stats st : Engine.runAll(tasks, pool)) total.add(st);
+            return total;
+        }
+
+        Engine.GameSummary play(AiWeights weights, int game) {
+            GameState base = levels.get(game % levels.size());
+            GameState st = new GameState(base.grid, base.ball, base.gems, base.totalGems,
+                                         new GameRecord(base.record.level, base.record.seed));
+            long gameSeed = seed * 1_000_003L + game;
+            return Engine.playOut(st, new HumanProxy(gameSeed), new ComputerPlayer(new Random(gameSeed), weights), MAX_MOVES);
+        }
+
+        // Coordinate search: scale one weight at a time, keep improvements, halve the step when none helps
+        AiWeights tune(AiWeights start, int rounds) throws InterruptedException, ExecutionException {
+            Map<AiWeights, Stats> seen = new HashMap<>();
+            AiWeights best = start;
+            Stats bestStats = evaluate(start);
+            seen.put(best, bestStats);
+            System.out.println("start " + best + ": " + bestStats);
+
+            double step = 0.5;
+            for (int round = 0; round < rounds && step >= 0.05; round++) {
+                boolean improved = false;
+                for (int w = 0; w < 4; w++) {
+                    for (int sign = -1; sign <= 1; sign += 2) {
+                        int[] cand = best.toArray();
+                        int delta = Math.max(1, (int) Math.round(cand[w] * step));
+                        cand[w] = Math.max(0, cand[w] + sign * delta);
+                        AiWeights next = AiWeights.of(cand);
+                        if (seen.containsKey(next)) continue;
+                        Stats st = evaluate(next);
+                        seen.put(next, st);
+                        System.out.println("  try " + next + ": " + st);
+                        if (st.betterThan(bestStats)) { best = next; bestStats = st; improved = true; }
+                    }
+                }
+                System.out.println("round " + (round + 1) + " best " + best + ": " + bestStats);
+                if (!improved) step /= 2;
+            }
+            return best;
+        }
+
+        // Seeded levels for the run; seeds the generator gives up on are skipped
+        static List<GameState> levels(int count, long seed, ExecutorService pool)
+                throws InterruptedException, ExecutionException {
+            List<Callable<GameState>> tasks = new ArrayList<>();
+            for (int i = 0; i < count * 2; i++) {
+                long levelSeed = seed + i;
+                tasks.add(() -> {
+                    try {
+                        return Level.generateRandomLevel(levelSeed).toGameState();
+                    } catch (RuntimeException ex) {
+                        return null;
+                    }
+                });
+            }
+            List<GameState> out = new ArrayList<>();
+            for (GameState st : Engine.runAll(tasks, pool)) {
+                if (st != null && out.size() < count) out.add(st);
+            }
+            return out;
+        }
+
+        // java Inertia --selfplay games seed [rounds]   tunes the weights and prints the best set
+        static void run(int games, long seed, int rounds) throws InterruptedException, ExecutionException {
+            ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                List<GameState> levels = levels(Math.min(games, 256), seed, pool);
+                if (levels.isEmpty()) throw new IllegalStateException("No levels generated for seed " + seed);
+                SelfPlay sp = new SelfPlay(levels, games, seed, pool);
+                long t0 = System.nanoTime();
+                AiWeights best = sp.tune(AiWeights.fromProperty(), rounds);
+                double secs = (System.nanoTime() - t0) / 1e9;
+                System.out.printf("best -Dinertia.aiWeights=%s (%.1f s)%n", best, secs);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
     // ===== UI & Controller =====
     final BoardPanel board;
     final JLabel status;
     final JComboBox<String> quadrantSelector;
-    GameState state;
+    volatile GameState state;                 // current version; replaced, never changed, so workers may read it
     Level currentLevel;
+    private final Deque<GameState> undoHistory = new ArrayDeque<>();
+    private final Deque<GameState> redoHistory = new ArrayDeque<>();
 
     volatile boolean showExplosion = false;
     Vec explosionCenter = null;
@@ -254,10 +1029,50 @@ import javax.swing.*;
     boolean gameOver = false;
     private Turn turn = Turn.HUMAN;
 
-    // AI memory to avoid oscillation patterns for shared ball
-    private Vec lastEnd = null;
-    private Vec prevEnd = null;
     private final Random rng = new Random();
+    private final AiWeights aiWeights = AiWeights.fromProperty();   // -Dinertia.aiWeights=gem,mine,repeatLast,repeatPrev
+    private ComputerPlayer computer = new ComputerPlayer(rng, aiWeights);
+
+    // Lookahead search for the computer's reply runs here while the 1s gap elapses
+    private final ExecutorService aiExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "inertia-ai");
+        t.setDaemon(true);
+        return t;
+    });
+    private final int aiBudgetMillis = Math.max(10, Math.min(900, Integer.getInteger("inertia.aiBudgetMs", 400)));
+    private Future<Integer> computerReply = null;
+    private boolean replySpeculated = false;
+    private AiMode aiMode = AiMode.LOOKAHEAD;
+    private Difficulty difficulty = Difficulty.NORMAL;
+
+    // Lookahead replies to every legal human move, searched while the human is still deciding
+    private final ExecutorService speculateExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(DIRS.length, Runtime.getRuntime().availableProcessors() - 1)), r -> {
+        Thread t = new Thread(r, "inertia-speculate");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private final int speculateBudgetMillis = Math.max(100, Math.min(30000, Integer.getInteger("inertia.speculateBudgetMs", 3000)));
+    private final Speculation[] speculations = new Speculation[DIRS.length];
+
+    // Most recent solver runs, newest first
+    static final int SOLVER_HISTORY = 100;
+    private final Deque<SolverMetrics> solverHistory = new ArrayDeque<>();
+    private final int mctsIterations = Math.max(100, Integer.getInteger("inertia.mctsIterations", 20000));
+    private final MctsEngine mcts = new MctsEngine(Runtime.getRuntime().availableProcessors());
+
+    // Retrograde move tables for the current level, built once per level in the background: one per
+    // quadrant (slides must land inside it) and one for the whole board, indexed by Quadrant.ordinal()
+    private final ExecutorService oracleExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "inertia-oracle");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private Future<?> oracleBuild = null;
+    private AtomicReferenceArray<Oracle> oracleTables = new AtomicReferenceArray<>(Quadrant.values().length);
+    private Level oracleLevel = null;
 
     // For drawing: which outline to use on the single ball (last mover color)
     private Color lastMoverStroke = new Color(10, 120, 60);   
@@ -269,6 +1084,11 @@ import javax.swing.*;
     private List<Integer> currentQuadrantPlan = null;
     private Iterator<Integer> currentPlanIterator = null;
 
+    // A batched tick stops after this long so the EDT can still paint and take input
+    private static final long PLAYBACK_SLICE_NANOS = 12_000_000L;
+    private PlaybackSpeed playbackSpeed = PlaybackSpeed.NORMAL;
+    private JDialog notice = null;
+
     public Inertia() {
         super("Inertia — one shared ball, 1s gap, greedy+sorting AI, BFS levels, solver, quadrants");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -286,18 +1106,21 @@ import javax.swing.*;
         quadrantSelector.addActionListener(e -> {
             if (turn == Turn.HUMAN) {
                 switch (quadrantSelector.getSelectedIndex()) {
-                    case 0: state.currentQuadrant = Quadrant.ALL; break;
-                    case 1: state.currentQuadrant = Quadrant.TOP_LEFT; break;
-                    case 2: state.currentQuadrant = Quadrant.TOP_RIGHT; break;
-                    case 3: state.currentQuadrant = Quadrant.BOTTOM_LEFT; break;
-                    case 4: state.currentQuadrant = Quadrant.BOTTOM_RIGHT; break;
+                    case 0: setGameState(state.inQuadrant(Quadrant.ALL)); break;
+                    case 1: setGameState(state.inQuadrant(Quadrant.TOP_LEFT)); break;
+                    case 2: setGameState(state.inQuadrant(Quadrant.TOP_RIGHT)); break;
+                    case 3: setGameState(state.inQuadrant(Quadrant.BOTTOM_LEFT)); break;
+                    case 4: setGameState(state.inQuadrant(Quadrant.BOTTOM_RIGHT)); break;
                 }
                 updateStatus();
                 board.repaint();
+                speculateComputerReplies();
             }
         });
 
+        buildOracle();
         updateStatus();
+        speculateComputerReplies();
 
         add(board, BorderLayout.CENTER);
         add(toolbar(), BorderLayout.NORTH);
@@ -321,26 +1144,13 @@ import javax.swing.*;
             new SwingWorker<Level, Void>() {
                 @Override
                 protected Level doInBackground() {
-                    return Level.generateRandomLevel();
+                    return Level.generateRandomLevel(difficulty);
                 }
 
                 @Override
                 protected void done() {
                     try {
-                        currentLevel = get();
-                        state = currentLevel.toGameState();
-                        gameOver = false;
-                        showExplosion = false;
-                        explosionCenter = null;
-                        turn = Turn.HUMAN;
-                        lastEnd = null;
-                        prevEnd = null;
-                        lastMoverFill = new Color(30, 180, 90);
-                        lastMoverStroke = new Color(10, 120, 60);
-                        quadrantSelector.setSelectedIndex(0);
-                        board.setState(state);
-                        updateStatus();
-                        board.repaint();
+                        loadLevel(get());
                     } catch (Exception ex) {
                         ex.printStackTrace();
                         JOptionPane.showMessageDialog(Inertia.this,
@@ -351,43 +1161,48 @@ import javax.swing.*;
             }.execute();
         });
 
+        JComboBox<String> difficultySelector = new JComboBox<>(new String[]{"Easy", "Normal", "Hard"});
+        difficultySelector.setSelectedIndex(difficulty.ordinal());
+        difficultySelector.setToolTipText("Difficulty of the next new game");
+        difficultySelector.addActionListener(e -> difficulty = Difficulty.values()[difficultySelector.getSelectedIndex()]);
+
         JButton restart = new JButton("Restart");
         restart.addActionListener(e -> {
             if (this.currentLevel == null) return;
             stopTimers();
-            state = this.currentLevel.toGameState();
-            gameOver = false;
-            showExplosion = false;
-            explosionCenter = null;
-            turn = Turn.HUMAN;
-            lastEnd = null;
-            prevEnd = null;
-            lastMoverFill = new Color(30, 180, 90);
-            lastMoverStroke = new Color(10, 120, 60);
-            quadrantSelector.setSelectedIndex(0);
-            board.setState(state);
-            updateStatus();
-            board.repaint();
+            loadLevel(this.currentLevel);
         });
 
         JButton undo = new JButton("Undo");
         undo.addActionListener(e -> {
-            if (turn == Turn.HUMAN && state.undo()) {
+            if (turn == Turn.HUMAN && undoMove()) {
                 reviveGameIfNeeded();
                 updateStatus();
                 board.repaint();
+                speculateComputerReplies();
             }
         });
 
         JButton redo = new JButton("Redo");
         redo.addActionListener(e -> {
-            if (turn == Turn.HUMAN && state.redo()) {
+            if (turn == Turn.HUMAN && redoMove()) {
                 reviveGameIfNeeded();
                 updateStatus();
                 board.repaint();
+                speculateComputerReplies();
             }
         });
 
+        JToggleButton preview = new JToggleButton("Preview");
+        preview.setToolTipText("Show where each direction lands, the gems it picks up and any mine");
+        preview.addActionListener(e -> {
+            board.showPreview = preview.isSelected();
+            board.repaint();
+        });
+
+        JButton hint = new JButton("Hint");
+        hint.addActionListener(e -> showHint());
+
         JButton solve = new JButton("Solve game");
         solve.addActionListener(e -> {
             if (gameOver || turn == Turn.SOLVING) return;
@@ -407,22 +1222,128 @@ import javax.swing.*;
             startQuadrantSolver();
         });
 
+        JComboBox<String> speedSelector = new JComboBox<>(new String[]{"Speed: Normal", "Speed: Fast", "Speed: Turbo", "Speed: Instant"});
+        speedSelector.setToolTipText("Solver playback speed");
+        speedSelector.addActionListener(e -> {
+            playbackSpeed = PlaybackSpeed.values()[speedSelector.getSelectedIndex()];
+            if (solverTimer != null) solverTimer.setDelay(playbackSpeed.delayMs);
+        });
+
+        JComboBox<String> aiSelector = new JComboBox<>(new String[]{"AI: Lookahead", "AI: MCTS", "AI: Greedy", "AI: Oracle"});
+        aiSelector.addActionListener(e -> {
+            aiMode = AiMode.values()[aiSelector.getSelectedIndex()];
+            speculateComputerReplies();
+        });
+
+        JButton editor = new JButton("Editor");
+        editor.addActionListener(e -> new LevelEditor(this, currentLevel).setVisible(true));
+
+        JButton saveReplay = new JButton("Save replay");
+        saveReplay.addActionListener(e -> saveRecording());
+
+        JButton solverStats = new JButton("Solver stats");
+        solverStats.addActionListener(e -> exportSolverMetrics());
+
         tb.add(newGame);
+        tb.add(difficultySelector);
         tb.add(restart);
         tb.add(undo);
         tb.add(redo);
+        tb.add(preview);
+        tb.add(hint);
         tb.add(quadrantSelector);
         tb.add(solveQuadrant);
         tb.add(solve);
+        tb.add(speedSelector);
+        tb.add(aiSelector);
+        tb.add(editor);
+        tb.add(saveReplay);
+        tb.add(solverStats);
         return tb;
     }
 
+    // Every new version of the game goes through here so the board paints the same one
+    private void setGameState(GameState next) {
+        state = next;
+        board.setState(next);
+    }
+
+    // Back to the version before the human's last move (and the computer's reply to it)
+    private boolean undoMove() {
+        if (undoHistory.isEmpty()) return false;
+        redoHistory.push(state);
+        setGameState(undoHistory.pop());
+        state.record.rewind(state.recorded);
+        return true;
+    }
+
+    private boolean redoMove() {
+        if (redoHistory.isEmpty()) return false;
+        undoHistory.push(state);
+        setGameState(redoHistory.pop());
+        state.record.rewind(state.recorded);
+        return true;
+    }
+
+    // Starts a fresh game on the level; the oracle is kept when the level is the current one
+    private void loadLevel(Level level) {
+        currentLevel = level;
+        state = level.toGameState();
+        undoHistory.clear();
+        redoHistory.clear();
+        gameOver = false;
+        showExplosion = false;
+        explosionCenter = null;
+        turn = Turn.HUMAN;
+        computer = new ComputerPlayer(rng, aiWeights);
+        lastMoverFill = new Color(30, 180, 90);
+        lastMoverStroke = new Color(10, 120, 60);
+        quadrantSelector.setSelectedIndex(0);
+        board.setState(state);
+        buildOracle();
+        updateStatus();
+        board.repaint();
+        speculateComputerReplies();
+    }
+
+    private void saveRecording() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("inertia-" + System.currentTimeMillis() + ".inr"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        GameRecord rec = state.record;
+        rec.meta.put("ai", aiMode.name());
+        rec.meta.put("result.gems", Integer.toString(state.gemsCollected));
+        rec.meta.put("result.deaths", Integer.toString(state.deaths));
+        rec.meta.put("result.ball", Integer.toString(state.grid.index(state.ball)));
+        try {
+            rec.save(chooser.getSelectedFile());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Failed to save replay: " + ex.getMessage(), "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void exportSolverMetrics() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("inertia-solver-" + System.currentTimeMillis() + ".json"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            Files.write(chooser.getSelectedFile().toPath(),
+                    SolverMetrics.toJson(solverMetrics()).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Failed to export solver stats: " + ex.getMessage(), "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private void stopTimers() {
         if (explosionTimer != null && explosionTimer.isRunning()) explosionTimer.stop();
         if (compMoveTimer != null && compMoveTimer.isRunning()) compMoveTimer.stop();
         if (solverTimer != null && solverTimer.isRunning()) solverTimer.stop();
         compMoveTimer = null;
         solverTimer = null;
+        cancelComputerReply();
+        cancelSpeculations();
     }
 
     private void setupKeyBindings() {
@@ -458,7 +1379,8 @@ import javax.swing.*;
         if (turn != Turn.HUMAN || gameOver) return;
 
         // Check if move is valid in current quadrant
-        Vec preview = previewSlide(state.ball, dir);
+        int dirIdx = dirIndex(dir);
+        Vec preview = Engine.preview(state, dirIdx);
         if (!state.isInCurrentQuadrant(preview) && state.currentQuadrant != Quadrant.ALL) {
             JOptionPane.showMessageDialog(this, 
                 "Move must stay within the current quadrant!", 
@@ -467,43 +1389,42 @@ import javax.swing.*;
         }
 
         turn = Turn.WAITING;
-        state.pushUndo();
+        undoHistory.push(state);
+        redoHistory.clear();
 
-        boolean died = slideFrom(state.ball, dir, true, true);
+        Engine.MoveEvent move = Engine.apply(state, dirIdx, Mover.HUMAN);
+        setGameState(move.state);
         lastMoverFill = new Color(30, 180, 90);
         lastMoverStroke = new Color(10, 120, 60);
 
-        if (died) {
-            state.deaths++;
+        if (move.died) {
             explosionCenter = state.ball;
             triggerExplosionAnimation();
-            if (state.deaths >= 3) {
+            if (move.gameOver) {
                 gameOver = true;
                 updateStatus();
                 board.repaint();
                 SwingUtilities.invokeLater(() ->
                     JOptionPane.showMessageDialog(this, "Game over — 3 deaths reached. Click Restart or New game.", "Game Over", JOptionPane.INFORMATION_MESSAGE));
                 turn = Turn.HUMAN;
+                cancelSpeculations();
                 return;
             }
         }
 
-        // Check if quadrant is complete
-        if (state.currentQuadrant != Quadrant.ALL && state.isCurrentQuadrantComplete()) {
-            Quadrant next = state.getNextQuadrant();
-            if (next != state.currentQuadrant) {
-                state.currentQuadrant = next;
-                updateQuadrantSelector();
-                JOptionPane.showMessageDialog(this, 
-                    "Quadrant complete! Moving to " + next.toString().replace('_', ' ') + ".", 
-                    "Quadrant Complete", JOptionPane.INFORMATION_MESSAGE);
-            }
+        // Quadrant completed by this move: the engine already moved on to the next one
+        if (move.nextQuadrant != null) {
+            updateQuadrantSelector();
+            JOptionPane.showMessageDialog(this, 
+                "Quadrant complete! Moving to " + move.nextQuadrant.toString().replace('_', ' ') + ".", 
+                "Quadrant Complete", JOptionPane.INFORMATION_MESSAGE);
         }
 
         updateStatusWaiting();
         board.repaint();
 
         if (compMoveTimer != null && compMoveTimer.isRunning()) compMoveTimer.stop();
+        startComputerReplySearch();
         compMoveTimer = new javax.swing.Timer(1000, ev -> {
             if (gameOver) { turn = Turn.HUMAN; return; }
             turn = Turn.COMPUTER;
@@ -522,6 +1443,7 @@ import javax.swing.*;
             updateStatus();
             board.repaint();
             if (!gameOver) turn = Turn.HUMAN;
+            speculateComputerReplies();
         });
         compMoveTimer.setRepeats(false);
         compMoveTimer.start();
@@ -537,63 +1459,60 @@ import javax.swing.*;
         }
     }
 
-    // ===== Computer AI (sorting + greedy) on the shared ball =====
+    // ===== Computer AI (lookahead search, sorting + greedy fallback) on the shared ball =====
     private void handleComputerMove() {
+        AiMoveEvent event = new AiMoveEvent();
+        event.begin();
+        try {
+            playComputerMove(event);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.mode = aiMode.name();
+                event.speculative = replySpeculated;
+                event.boardCells = state.grid.size;
+                event.gemsLeft = state.remainingGems();
+                event.commit();
+            }
+        }
+    }
+
+    private void playComputerMove(AiMoveEvent event) {
         if (gameOver) return;
         if (state.allGemsCollected()) return;
 
-        Vec target = findNearestGem(state.ball);
-        if (target == null) return;
-
-        // Build candidate moves with simulation and scoring
-        List<Choice> candidates = new ArrayList<>();
-        for (Vec dir : DIRS) {
-            SimResult sim = simulateSlide(state.ball, dir);
-            if (!sim.moved) continue;
-            
-            // Check if move stays in current quadrant
-            if (!state.isInCurrentQuadrant(sim.end) && state.currentQuadrant != Quadrant.ALL) continue;
-            
-            int score = 0;
-            score += 5 * sim.gemsGained;
-            score -= sim.hitMine ? 100 : 0;
-            score -= manhattan(sim.end, target);
-            if (lastEnd != null && sim.end.equals(lastEnd)) score -= 15;
-            if (prevEnd != null && sim.end.equals(prevEnd)) score -= 10;
-            candidates.add(new Choice(dir, sim.end, score, sim.hitMine, sim.gemsGained));
-        }
-
-        if (candidates.isEmpty()) return;
+        Vec target = computer.findNearestGem(state, state.ball);
+        if (target == null) { cancelComputerReply(); return; }
 
-        Collections.shuffle(candidates, rng);
-        mergeSortChoices(candidates);
-        Choice best = candidates.get(candidates.size() - 1);
+        Choice best = lookaheadChoice();
+        event.searched = best != null;
+        if (best == null) best = computer.greedyChoice(state, target);
+        if (best == null) return;
 
-        boolean compDied = slideFrom(state.ball, best.dir, true, true);
-        prevEnd = lastEnd;
-        lastEnd = best.end;
+        Engine.MoveEvent move = Engine.apply(state, dirIndex(best.dir), Mover.COMPUTER);
+        setGameState(move.state);
+        event.direction = move.dir;
+        event.gemsGained = move.gemsGained;
+        event.died = move.died;
+        computer.moved(move.to);
 
         lastMoverFill = new Color(255, 150, 50);
         lastMoverStroke = new Color(200, 100, 30);
 
         // Check if quadrant is complete after computer move
-        if (state.currentQuadrant != Quadrant.ALL && state.isCurrentQuadrantComplete()) {
-            Quadrant next = state.getNextQuadrant();
-            if (next != state.currentQuadrant) {
-                state.currentQuadrant = next;
-                updateQuadrantSelector();
-                SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(this, 
-                        "Quadrant complete! Moving to " + next.toString().replace('_', ' ') + ".", 
-                        "Quadrant Complete", JOptionPane.INFORMATION_MESSAGE));
-            }
+        if (move.nextQuadrant != null) {
+            Quadrant next = move.nextQuadrant;
+            updateQuadrantSelector();
+            SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(this, 
+                    "Quadrant complete! Moving to " + next.toString().replace('_', ' ') + ".", 
+                    "Quadrant Complete", JOptionPane.INFORMATION_MESSAGE));
         }
 
-        if (compDied) {
-            state.deaths++;
+        if (move.died) {
             explosionCenter = state.ball;
             triggerExplosionAnimation();
-            if (state.deaths >= 3) {
+            if (move.gameOver) {
                 gameOver = true;
                 updateStatus();
                 board.repaint();
@@ -603,6 +1522,652 @@ import javax.swing.*;
         }
     }
 
+    // Starts the computer's search on the version right after the human moved
+    private void startComputerReplySearch() {
+        cancelComputerReply();
+        Grid grid = state.grid;
+        int ball = grid.index(state.ball);
+        long[] gems = state.gems;
+        long[] scope = Engine.scope(state);
+        int deaths = state.deaths;
+        int avoid1 = computer.lastEnd == null ? -1 : grid.index(computer.lastEnd);
+        int avoid2 = computer.prevEnd == null ? -1 : grid.index(computer.prevEnd);
+        long budget = TimeUnit.MILLISECONDS.toNanos(aiBudgetMillis);
+        replySpeculated = false;
+        switch (aiMode) {
+            case LOOKAHEAD:
+                Speculation ahead = takeSpeculation(ball, gems, scope, deaths, avoid1, avoid2);
+                if (ahead != null) {
+                    // Already searching since the human's turn began; cap it at the usual budget from now
+                    ahead.ai.hurry(System.nanoTime() + budget);
+                    computerReply = ahead.reply;
+                    replySpeculated = true;
+                    break;
+                }
+                LookaheadAI ai = new LookaheadAI(grid, scope, Engine.MAX_DEATHS, computer.distanceField(state), aiWeights);
+                computerReply = aiExecutor.submit(() -> ai.search(ball, gems, deaths, avoid1, avoid2, budget));
+                break;
+            case MCTS:
+                computerReply = aiExecutor.submit(() ->
+                    mcts.search(grid, scope, ball, gems, deaths, Engine.MAX_DEATHS, mctsIterations, budget));
+                break;
+            case ORACLE:
+                Oracle table = oracle();
+                if (table != null) computerReply = CompletableFuture.completedFuture(table.bestMove(ball, gems, scope));
+                break; // greedy until the table is ready
+            default:
+                break; // greedy scoring runs when the timer fires
+        }
+    }
+
+    // A lookahead search for the position one human move ahead
+    static final class Speculation {
+        final int ball, deaths, avoid1, avoid2;
+        final long[] gems, scope;
+        final LookaheadAI ai;
+        Future<Integer> reply;
+
+        Speculation(int ball, long[] gems, long[] scope, int deaths, int avoid1, int avoid2, LookaheadAI ai) {
+            this.ball = ball; this.gems = gems; this.scope = scope;
+            this.deaths = deaths; this.avoid1 = avoid1; this.avoid2 = avoid2;
+            this.ai = ai;
+        }
+
+        boolean matches(int ball, long[] gems, long[] scope, int deaths, int avoid1, int avoid2) {
+            return this.ball == ball && this.deaths == deaths && this.avoid1 == avoid1 && this.avoid2 == avoid2
+                    && Arrays.equals(this.gems, gems) && Arrays.equals(this.scope, scope);
+        }
+
+        // The search ignores interrupts, so stop it through its deadline as well
+        void cancel() {
+            ai.hurry(Long.MIN_VALUE);
+            reply.cancel(true);
+        }
+    }
+
+    // Searches the computer's reply to each legal human move in the background. Searches whose
+    // position is unchanged keep running; moves that end the quadrant or the game are left to
+    // the normal search after the move.
+    private void speculateComputerReplies() {
+        if (aiMode != AiMode.LOOKAHEAD || gameOver || turn != Turn.HUMAN) {
+            cancelSpeculations();
+            return;
+        }
+        Grid grid = state.grid;
+        int from = grid.index(state.ball);
+        long[] scope = Engine.scope(state);
+        int avoid1 = computer.lastEnd == null ? -1 : grid.index(computer.lastEnd);
+        int avoid2 = computer.prevEnd == null ? -1 : grid.index(computer.prevEnd);
+        long budget = TimeUnit.MILLISECONDS.toNanos(speculateBudgetMillis);
+        for (int d = 0; d < DIRS.length; d++) {
+            Speculation old = speculations[d];
+            speculations[d] = null;
+            int slide = grid.slide(from, d);
+            int end = Grid.end(slide);
+            long[] gems = Bits.minus(state.gems, grid.ray(from, d));
+            int deaths = state.deaths + (Grid.hitsMine(slide) ? 1 : 0);
+            boolean useful = end != from && Bits.get(scope, end)
+                    && deaths < Engine.MAX_DEATHS && Bits.intersects(gems, scope);
+            if (old != null && useful && old.matches(end, gems, scope, deaths, avoid1, avoid2)) {
+                speculations[d] = old;
+                continue;
+            }
+            if (old != null) old.cancel();
+            if (!useful) continue;
+
+            Speculation s = new Speculation(end, gems, scope, deaths, avoid1, avoid2,
+                    new LookaheadAI(grid, scope, Engine.MAX_DEATHS, new SlideDistance(grid, scope, gems), aiWeights));
+            s.reply = speculateExecutor.submit(() -> s.ai.search(end, gems, deaths, avoid1, avoid2, budget));
+            speculations[d] = s;
+        }
+    }
+
+    // The search matching the position after the human's move, if any; the others are cancelled
+    private Speculation takeSpeculation(int ball, long[] gems, long[] scope, int deaths, int avoid1, int avoid2) {
+        Speculation hit = null;
+        for (int d = 0; d < DIRS.length; d++) {
+            Speculation s = speculations[d];
+            speculations[d] = null;
+            if (s == null) continue;
+            if (hit == null && s.matches(ball, gems, scope, deaths, avoid1, avoid2)) hit = s;
+            else s.cancel();
+        }
+        return hit;
+    }
+
+    private void cancelSpeculations() {
+        takeSpeculation(-1, null, null, -1, -1, -1);
+    }
+
+    // Starts building the move table when the level changed; restarts reuse the existing one
+    private void buildOracle() {
+        if (oracleLevel == currentLevel && oracleBuild != null) return;
+        if (oracleBuild != null) oracleBuild.cancel(true);
+        oracleLevel = currentLevel;
+        Grid grid = state.grid;
+        long[] gems = state.gems;
+        AtomicReferenceArray<Oracle> tables = new AtomicReferenceArray<>(Quadrant.values().length);
+        oracleTables = tables;
+        oracleBuild = oracleExecutor.submit(() -> {
+            // Quadrant tables hold a handful of gems and are ready almost at once; the whole board comes last
+            for (int q = 0; q < 4; q++) tables.set(q, Oracle.build(grid, gems, grid.quadrants[q]));
+            tables.set(Quadrant.ALL.ordinal(), Oracle.build(grid, gems, null));
+        });
+    }
+
+    // The table for the current quadrant once it is built, else null; never waits
+    private Oracle oracle() {
+        return oracleTables.get(state.currentQuadrant.ordinal());
+    }
+
+    private void showHint() {
+        if (gameOver || turn != Turn.HUMAN) return;
+        Oracle table = oracle();
+        if (table == null) {
+            boolean building = oracleBuild != null && !oracleBuild.isDone();
+            status.setText(status.getText() + (building ? "     Hint table is still being built..."
+                                                        : "     No hint table for this level (too many gems)"));
+            return;
+        }
+        int ball = state.grid.index(state.ball);
+        int dir = table.bestMove(ball, state.gems, Engine.scope(state));
+        if (dir < 0) {
+            JOptionPane.showMessageDialog(this, "No mine-free way to collect the remaining gems from here.",
+                    "Hint", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        board.showHint(ball, state.remainingGems(), dir);
+        board.repaint();
+    }
+
+    private void cancelComputerReply() {
+        if (computerReply != null) computerReply.cancel(true);
+        computerReply = null;
+    }
+
+    private Choice lookaheadChoice() {
+        Future<Integer> reply = computerReply;
+        computerReply = null;
+        if (reply == null) return null;
+        int dirIdx;
+        try {
+            dirIdx = reply.get(aiBudgetMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception ex) {
+            reply.cancel(true);
+            return null;
+        }
+        if (dirIdx < 0) return null;
+        SimResult sim = Engine.simulate(state, dirIdx);
+        if (!sim.moved || !state.isInCurrentQuadrant(sim.end)) return null;
+        return new Choice(DIRS[dirIdx], sim.end, 0, sim.hitMine, sim.gemsGained);
+    }
+
+    // ===== Lookahead AI: iterative-deepening expectimax, the human is a uniform random mover =====
+    static final class LookaheadAI {
+        static final int WIN = 1000, LOSS = 1000;
+        static final int MAX_DEPTH = 16;
+
+        final Grid grid;
+        final long[] scope;      // landing cells allowed this turn (the current quadrant)
+        final int maxDeaths;
+        final long[][] gemStack; // gems left at each ply, reused so the search does not allocate
+        final int[] distance;    // slide-distance field of the root position, or null for Manhattan
+        final int[] target;      // gem each field entry heads for; once taken that entry no longer holds
+        final AiWeights weights;
+        private volatile long deadline;
+        private volatile long hurryBy = Long.MAX_VALUE;
+        private int nodes;
+        private boolean aborted;
+
+        LookaheadAI(Grid grid, long[] scope, int maxDeaths, SlideDistance field, AiWeights weights) {
+            this.grid = grid;
+            this.weights = weights;
+            this.scope = scope;
+            this.maxDeaths = maxDeaths;
+            this.distance = field == null ? null : field.distances();
+            this.target = field == null ? null : field.targets();
+            this.gemStack = new long[MAX_DEPTH + 1][scope.length];
+        }
+
+        // Best computer direction found before the deadline, or -1 when it has no legal move
+        int search(int ball, long[] gems, int deaths, int avoid1, int avoid2, long budgetNanos) {
+            deadline = System.nanoTime() + budgetNanos;
+            if (hurryBy < deadline) deadline = hurryBy;
+            aborted = false;
+            nodes = 0;
+            System.arraycopy(gems, 0, gemStack[0], 0, gems.length);
+
+            int best = -1;
+            for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+                int iterBest = -1;
+                double iterValue = Double.NEGATIVE_INFINITY;
+                for (int d = 0; d < DIRS.length; d++) {
+                    int end = Grid.end(grid.slide(ball, d));
+                    if (!legal(ball, end)) continue;
+                    double v = child(0, depth, ball, d, deaths, false);
+                    if (aborted) break;
+                    if (end == avoid1) v -= weights.repeatLast;
+                    if (end == avoid2) v -= weights.repeatPrev;
+                    if (v > iterValue) { iterValue = v; iterBest = d; }
+                }
+                if (aborted) break;
+                best = iterBest;
+                if (best < 0) break;
+            }
+            return best;
+        }
+
+        // Pulls the deadline in, from any thread; safe to call before the search starts
+        void hurry(long deadlineNanos) {
+            hurryBy = deadlineNanos;
+            if (deadline > deadlineNanos) deadline = deadlineNanos;
+        }
+
+        private boolean legal(int from, int end) { return end != from && Bits.get(scope, end); }
+
+        // Applies one slide at ply and scores the resulting position with depth - 1 plies to go
+        private double child(int ply, int depth, int from, int dir, int deaths, boolean computerNext) {
+            if ((++nodes & 1023) == 0 && System.nanoTime() > deadline) aborted = true;
+            if (aborted) return 0;
+
+            int slide = grid.slide(from, dir);
+            int end = Grid.end(slide);
+            long[] gems = gemStack[ply + 1];
+            System.arraycopy(gemStack[ply], 0, gems, 0, gems.length);
+            double reward = weights.gem * Bits.clearAll(gems, grid.ray(from, dir));
+            if (Grid.hitsMine(slide)) {
+                reward -= weights.mine;
+                if (++deaths >= maxDeaths) return reward - LOSS;
+            }
+            if (!Bits.intersects(gems, scope)) return reward + WIN + depth;
+            if (depth == 1) return reward + evaluate(end, gems);
+            return reward + (computerNext ? maxNode(ply + 1, depth - 1, end, deaths)
+                                          : chanceNode(ply + 1, depth - 1, end, deaths));
+        }
+
+        private double maxNode(int ply, int depth, int ball, int deaths) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (int d = 0; d < DIRS.length; d++) {
+                if (!legal(ball, Grid.end(grid.slide(ball, d)))) continue;
+                best = Math.max(best, child(ply, depth, ball, d, deaths, false));
+            }
+            return best == Double.NEGATIVE_INFINITY ? evaluate(ball, gemStack[ply]) : best;
+        }
+
+        private double chanceNode(int ply, int depth, int ball, int deaths) {
+            double sum = 0;
+            int moves = 0;
+            for (int d = 0; d < DIRS.length; d++) {
+                if (!legal(ball, Grid.end(grid.slide(ball, d)))) continue;
+                sum += child(ply, depth, ball, d, deaths, true);
+                moves++;
+            }
+            // A human with no legal move passes the turn back
+            return moves == 0 ? maxNode(ply, depth, ball, deaths) : sum / moves;
+        }
+
+        private double evaluate(int ball, long[] gems) {
+            // The root field goes stale for cells whose nearest gem was collected deeper in the search
+            if (distance != null && (target[ball] < 0 || Bits.get(gems, target[ball]))) {
+                int d = distance[ball];
+                return d == SlideDistance.INF ? -(grid.rows + grid.cols) : -d;
+            }
+            int br = grid.row(ball), bc = grid.col(ball);
+            int best = Integer.MAX_VALUE;
+            for (int w = 0; w < gems.length; w++) {
+                long bits = gems[w] & scope[w];
+                while (bits != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    best = Math.min(best, Math.abs(grid.row(i) - br) + Math.abs(grid.col(i) - bc));
+                }
+            }
+            return best == Integer.MAX_VALUE ? 0 : -best;
+        }
+    }
+
+    // ===== Slide distance field: slides needed from each cell until the next gem pickup =====
+    static final class SlideDistance {
+        static final int INF = Integer.MAX_VALUE;
+
+        final Grid grid;
+        final long[] scope;   // landing cells allowed (the current quadrant)
+        final long[] gems;    // target gems the field reflects (remaining gems inside scope)
+        private final int[] dist, via;            // via = gem cell the shortest line of slides picks up
+        private final int[] predStart, preds;     // reverse slide graph in CSR form
+        private final boolean[] dirty;
+        private final int[] work, queueCell, queueDist, queueVia;
+        private long[] seeds;
+
+        SlideDistance(Grid grid, long[] scope, long[] gems) {
+            this.grid = grid;
+            this.scope = scope.clone();
+            this.gems = Bits.and(gems, scope);
+            int n = grid.size;
+            this.dist = new int[n];
+            this.via = new int[n];
+            this.dirty = new boolean[n];
+            this.work = new int[n];
+            this.seeds = new long[n];
+
+            predStart = new int[n + 1];
+            for (int c = 0; c < n; c++)
+                for (int d = 0; d < DIRS.length; d++)
+                    if (edge(c, d)) predStart[Grid.end(grid.slide(c, d)) + 1]++;
+            for (int i = 0; i < n; i++) predStart[i + 1] += predStart[i];
+            preds = new int[predStart[n]];
+            int[] fill = Arrays.copyOf(predStart, n);
+            for (int c = 0; c < n; c++)
+                for (int d = 0; d < DIRS.length; d++)
+                    if (edge(c, d)) preds[fill[Grid.end(grid.slide(c, d))]++] = c;
+
+            queueCell = new int[preds.length + n];
+            queueDist = new int[preds.length + n];
+            queueVia = new int[preds.length + n];
+            rebuild();
+        }
+
+        int distance(int cell) { return dist[cell]; }
+        int target(int cell) { return via[cell]; }
+        int[] distances() { return dist.clone(); }
+        int[] targets() { return via.clone(); }
+
+        // Brings the field in line with the current gems; pickups only re-solve cells that relied on them
+        void update(long[] current) {
+            boolean added = false, removed = false;
+            for (int w = 0; w < gems.length; w++) {
+                long now = current[w] & scope[w];
+                if ((now & ~gems[w]) != 0) added = true;
+                if ((gems[w] & ~now) != 0) removed = true;
+            }
+            if (!added && !removed) return;
+            if (added) {
+                for (int w = 0; w < gems.length; w++) gems[w] = current[w] & scope[w];
+                rebuild();
+                return;
+            }
+            int n = 0;
+            for (int c = 0; c < grid.size; c++) {
+                int g = via[c];
+                if (g >= 0 && !Bits.get(current, g)) work[n++] = c;
+            }
+            for (int w = 0; w < gems.length; w++) gems[w] = current[w] & scope[w];
+            recompute(n);
+        }
+
+        private void rebuild() {
+            int n = 0;
+            for (int c = 0; c < grid.size; c++) {
+                dist[c] = INF;
+                via[c] = -1;
+                if (!Bits.get(grid.walls, c) && !Bits.get(grid.blocks, c)) work[n++] = c;
+            }
+            recompute(n);
+        }
+
+        private boolean edge(int from, int d) {
+            if (Bits.get(grid.walls, from) || Bits.get(grid.blocks, from)) return false;
+            int slide = grid.slide(from, d);
+            int end = Grid.end(slide);
+            return end != from && !Grid.hitsMine(slide) && Bits.get(scope, end);
+        }
+
+        // Multi-source BFS over the first n cells of work, seeded from gems in reach and clean neighbours
+        private void recompute(int n) {
+            for (int i = 0; i < n; i++) {
+                int c = work[i];
+                dirty[c] = true;
+                dist[c] = INF;
+                via[c] = -1;
+            }
+            int seedCount = 0;
+            for (int i = 0; i < n; i++) {
+                int c = work[i];
+                int best = INF, bestVia = -1;
+                for (int d = 0; d < DIRS.length && best > 1; d++) {
+                    if (!edge(c, d)) continue;
+                    int g = firstGem(grid.ray(c, d));
+                    if (g >= 0) { best = 1; bestVia = g; break; }
+                    int e = Grid.end(grid.slide(c, d));
+                    if (!dirty[e] && dist[e] != INF && dist[e] + 1 < best) { best = dist[e] + 1; bestVia = via[e]; }
+                }
+                if (best == INF) continue;
+                dist[c] = best;
+                via[c] = bestVia;
+                seeds[seedCount++] = ((long) best << 32) | c;
+            }
+            Arrays.sort(seeds, 0, seedCount);
+
+            // Merge the sorted seeds with the FIFO; both are non-decreasing in distance
+            int head = 0, tail = 0, si = 0;
+            while (si < seedCount || head < tail) {
+                int c, d, v;
+                if (head == tail || (si < seedCount && (int) (seeds[si] >>> 32) <= queueDist[head])) {
+                    c = (int) seeds[si++];
+                    d = dist[c];
+                    v = via[c];
+                } else {
+                    c = queueCell[head];
+                    d = queueDist[head];
+                    v = queueVia[head++];
+                }
+                if (!dirty[c]) continue;
+                dirty[c] = false;
+                dist[c] = d;
+                via[c] = v;
+                for (int k = predStart[c]; k < predStart[c + 1]; k++) {
+                    int p = preds[k];
+                    if (!dirty[p] || d + 1 >= dist[p]) continue;
+                    dist[p] = d + 1;
+                    via[p] = v;
+                    queueCell[tail] = p;
+                    queueDist[tail] = d + 1;
+                    queueVia[tail++] = v;
+                }
+            }
+            for (int i = 0; i < n; i++) dirty[work[i]] = false;
+        }
+
+        private int firstGem(long[] ray) {
+            for (int w = 0; w < ray.length; w++) {
+                long hit = ray[w] & gems[w];
+                if (hit != 0) return (w << 6) + Long.numberOfTrailingZeros(hit);
+            }
+            return -1;
+        }
+    }
+
+    // ===== MCTS opponent: parallel open-loop UCT over computer moves, human moves sampled =====
+    static final class MctsEngine {
+        static final double EXPLORATION = 0.7;
+        static final int VIRTUAL_LOSS = 3;
+        static final int MAX_TREE_DEPTH = 48;
+        static final int ROLLOUT_PLIES = 24;
+
+        final int threads;
+        private final ExecutorService workers;
+
+        MctsEngine(int threads) {
+            this.threads = Math.max(1, threads);
+            this.workers = Executors.newFixedThreadPool(this.threads, r -> {
+                Thread t = new Thread(r, "inertia-mcts");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        // Tree node for one sequence of computer moves; stats are written under the node's lock
+        static final class Node {
+            final Node[] children = new Node[DIRS.length];
+            volatile int visits;
+            volatile double total;
+
+            synchronized void addVirtualLoss() { visits += VIRTUAL_LOSS; }
+            synchronized void update(double reward) { visits += 1 - VIRTUAL_LOSS; total += reward; }
+        }
+
+        // Most visited computer direction after the given iterations (or the deadline), -1 if none is legal
+        int search(Grid grid, long[] scope, int ball, long[] gems, int deaths, int maxDeaths,
+                   int iterations, long budgetNanos) {
+            Node root = new Node();
+            AtomicInteger remaining = new AtomicInteger(iterations);
+            long deadline = System.nanoTime() + budgetNanos;
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = System.nanoTime() * 31 + t;
+                tasks.add(() -> {
+                    new Worker(grid, scope, ball, gems, deaths, maxDeaths, seed).run(root, remaining, deadline);
+                    return null;
+                });
+            }
+            try {
+                workers.invokeAll(tasks);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            int best = -1, bestVisits = 0;
+            for (int d = 0; d < DIRS.length; d++) {
+                Node child = root.children[d];
+                if (child != null && child.visits > bestVisits) { bestVisits = child.visits; best = d; }
+            }
+            return best;
+        }
+
+        // One worker thread: its own copy of the position, path buffer and random stream
+        static final class Worker {
+            final Grid grid;
+            final long[] scope, rootGems, gems;
+            final int rootBall, rootDeaths, maxDeaths, rootInScope;
+            final Node[] path = new Node[MAX_TREE_DEPTH + 2];
+            final SplittableRandom random;
+            int ball, deaths, plies;
+
+            Worker(Grid grid, long[] scope, int ball, long[] gems, int deaths, int maxDeaths, long seed) {
+                this.grid = grid;
+                this.scope = scope;
+                this.rootGems = gems;
+                this.gems = gems.clone();
+                this.rootBall = ball;
+                this.rootDeaths = deaths;
+                this.maxDeaths = maxDeaths;
+                this.rootInScope = Math.max(1, Bits.countAnd(gems, scope));
+                this.random = new SplittableRandom(seed);
+            }
+
+            void run(Node root, AtomicInteger remaining, long deadline) {
+                while (remaining.getAndDecrement() > 0 && System.nanoTime() < deadline) iterate(root);
+            }
+
+            private void iterate(Node root) {
+                System.arraycopy(rootGems, 0, gems, 0, gems.length);
+                ball = rootBall;
+                deaths = rootDeaths;
+                plies = 0;
+
+                int depth = 0;
+                Node node = root;
+                path[0] = root;
+                root.addVirtualLoss();
+                while (depth < MAX_TREE_DEPTH && !finished()) {
+                    boolean expanded = false;
+                    int dir;
+                    Node next;
+                    synchronized (node) {
+                        dir = selectOrExpand(node);
+                        if (dir < 0) break;
+                        next = node.children[dir];
+                        if (next == null) {
+                            next = node.children[dir] = new Node();
+                            expanded = true;
+                        }
+                    }
+                    next.addVirtualLoss();
+                    path[++depth] = next;
+                    node = next;
+                    play(dir);
+                    if (expanded || finished()) break;
+                    play(randomMove()); // the human's reply
+                }
+
+                double reward = rollout();
+                for (int i = depth; i >= 0; i--) path[i].update(reward);
+            }
+
+            // Untried legal moves first, then UCT with in-flight visits counted as losses
+            private int selectOrExpand(Node node) {
+                double logN = Math.log(Math.max(1, node.visits));
+                int best = -1;
+                double bestScore = Double.NEGATIVE_INFINITY;
+                int offset = random.nextInt(DIRS.length);
+                for (int k = 0; k < DIRS.length; k++) {
+                    int d = (k + offset) % DIRS.length;
+                    if (!legal(d)) continue;
+                    Node child = node.children[d];
+                    if (child == null) return d;
+                    int n = Math.max(1, child.visits);
+                    double score = child.total / n + EXPLORATION * Math.sqrt(logN / n);
+                    if (score > bestScore) { bestScore = score; best = d; }
+                }
+                return best;
+            }
+
+            private double rollout() {
+                boolean computer = false;
+                while (plies < ROLLOUT_PLIES + MAX_TREE_DEPTH && !finished()) {
+                    int d = computer ? policyMove() : randomMove();
+                    if (d < 0) break;
+                    play(d);
+                    computer = !computer;
+                }
+                if (deaths >= maxDeaths) return 0;
+                int left = Bits.countAnd(gems, scope);
+                if (left == 0) return 1.0 - 0.001 * plies;
+                double collected = (rootInScope - left) / (double) rootInScope;
+                return collected * Math.pow(0.5, deaths - rootDeaths);
+            }
+
+            private boolean legal(int d) {
+                int end = Grid.end(grid.slide(ball, d));
+                return end != ball && Bits.get(scope, end);
+            }
+
+            private boolean finished() { return deaths >= maxDeaths || !Bits.intersects(gems, scope); }
+
+            private void play(int d) {
+                if (d < 0) return;
+                int slide = grid.slide(ball, d);
+                Bits.clearAll(gems, grid.ray(ball, d));
+                if (Grid.hitsMine(slide)) deaths++;
+                ball = Grid.end(slide);
+                plies++;
+            }
+
+            private int randomMove() {
+                int chosen = -1, seen = 0;
+                for (int d = 0; d < DIRS.length; d++) {
+                    if (legal(d) && random.nextInt(++seen) == 0) chosen = d;
+                }
+                return chosen;
+            }
+
+            // Rollout policy for the computer: usually the safe slide that gains most gems
+            private int policyMove() {
+                if (random.nextInt(4) == 0) return randomMove();
+                int best = -1, bestScore = Integer.MIN_VALUE, ties = 0;
+                for (int d = 0; d < DIRS.length; d++) {
+                    if (!legal(d)) continue;
+                    int score = 5 * Bits.countAnd(gems, grid.ray(ball, d));
+                    if (Grid.hitsMine(grid.slide(ball, d))) score -= 100;
+                    if (score > bestScore) { bestScore = score; best = d; ties = 1; }
+                    else if (score == bestScore && random.nextInt(++ties) == 0) best = d;
+                }
+                return best;
+            }
+        }
+    }
+
     // ================= MERGE SORT (Explicit Sorting Algorithm) =================
     private static void mergeSortChoices(List<Choice> list) {
         if (list.size() <= 1) return;
@@ -647,28 +2212,6 @@ import javax.swing.*;
         SimResult(Vec e, boolean m, boolean h, int g) { end = e; moved = m; hitMine = h; gemsGained = g; }
     }
 
-    private SimResult simulateSlide(Vec startPos, Vec dir) {
-        Vec cur = new Vec(startPos.r, startPos.c);
-        int gems = 0;
-        boolean moved = false;
-
-        while (true) {
-            Vec nxt = cur.add(dir);
-            if (!state.grid.inBounds(nxt) || state.grid.isWall(nxt)) break;
-            moved = true;
-            cur = nxt;
-
-            if (state.gemPresent[cur.r][cur.c]) gems++;
-
-            Cell cell = state.grid.get(cur);
-            if (cell == Cell.MINE) {
-                return new SimResult(new Vec(cur.r, cur.c), true, true, gems);
-            }
-            if (cell == Cell.STOP) break;
-        }
-        return new SimResult(new Vec(cur.r, cur.c), moved, false, gems);
-    }
-
     private void triggerExplosionAnimation() {
         showExplosion = true;
         if (explosionTimer != null && explosionTimer.isRunning()) explosionTimer.stop();
@@ -682,60 +2225,6 @@ import javax.swing.*;
         explosionTimer.start();
     }
 
-    private boolean slideFrom(Vec startPos, Vec dir, boolean collectGems, boolean allowDeath) {
-        Vec cur = new Vec(startPos.r, startPos.c);
-        boolean died = false;
-        while (true) {
-            Vec nxt = cur.add(dir);
-            if (!state.grid.inBounds(nxt) || state.grid.isWall(nxt)) break;
-            cur = nxt;
-
-            if (collectGems && state.gemPresent[cur.r][cur.c]) {
-                state.gemPresent[cur.r][cur.c] = false;
-                state.gemsCollected++;
-            }
-
-            Cell cell = state.grid.get(cur);
-            if (cell == Cell.MINE) {
-                state.ball = new Vec(cur.r, cur.c);
-                if (allowDeath) died = true;
-                break;
-            }
-            if (cell == Cell.STOP) break;
-        }
-        state.ball = new Vec(cur.r, cur.c);
-        return died;
-    }
-
-    private Vec previewSlide(Vec startPos, Vec dir) {
-        Vec cur = new Vec(startPos.r, startPos.c);
-        while (true) {
-            Vec nxt = cur.add(dir);
-            if (!state.grid.inBounds(nxt) || state.grid.isWall(nxt)) break;
-            cur = nxt;
-            Cell cell = state.grid.get(cur);
-            if (cell == Cell.MINE || cell == Cell.STOP) break;
-        }
-        return cur;
-    }
-
-    private Vec findNearestGem(Vec from) {
-        int bestDist = Integer.MAX_VALUE;
-        Vec best = null;
-        for (int r = 0; r < state.grid.rows; r++) {
-            for (int c = 0; c < state.grid.cols; c++) {
-                if (state.gemPresent[r][c] && state.isInCurrentQuadrant(new Vec(r, c))) {
-                    Vec g = new Vec(r, c);
-                    int d = manhattan(from, g);
-                    if (d < bestDist) { bestDist = d; best = g; }
-                }
-            }
-        }
-        return best;
-    }
-
-    private int manhattan(Vec a, Vec b) { return Math.abs(a.r - b.r) + Math.abs(a.c - b.c); }
-
     private void updateStatusWaiting() {
         String quadrantInfo = state.currentQuadrant == Quadrant.ALL ? 
             "All" : state.currentQuadrant.toString().replace('_', ' ');
@@ -767,6 +2256,14 @@ import javax.swing.*;
             status.setText(String.format("Gems: %d/%d     Deaths: %d     Quadrant: %s     %s", 
                 state.gemsCollected, state.totalGems, state.deaths, quadrantInfo, t));
         }
+        Oracle table = oracle();
+        if (table != null && !gameOver) {
+            int left = table.movesToFinish(state.grid.index(state.ball), state.gems);
+            String what = state.currentQuadrant == Quadrant.ALL ? "Moves to finish: " : "Moves to finish quadrant: ";
+            status.setText(status.getText() + "     " + (left < 0 ? "Cannot finish without a mine" : what + left));
+        }
+        SolverMetrics last = lastSolverMetrics();
+        if (last != null) status.setText(status.getText() + "     " + last.summary());
     }
 
     // ===== DIVIDE & CONQUER SOLVER (Solve game quadrant by quadrant) =====
@@ -784,17 +2281,17 @@ import javax.swing.*;
         Quadrant firstQuadrant = solverQuadrants.get(0);
         
         // Temporarily set the current quadrant for solving
-        state.currentQuadrant = firstQuadrant;
+        setGameState(state.inQuadrant(firstQuadrant));
         updateQuadrantSelector();
         
         // Get plan for first quadrant
-        currentQuadrantPlan = bfsSolveQuadrant(firstQuadrant);
+        currentQuadrantPlan = solveQuadrant(firstQuadrant);
         
         if (currentQuadrantPlan == null || currentQuadrantPlan.isEmpty()) {
             JOptionPane.showMessageDialog(this, 
                 "Cannot solve first quadrant. Try a different approach.", 
                 "Solver", JOptionPane.WARNING_MESSAGE);
-            state.currentQuadrant = Quadrant.ALL;
+            setGameState(state.inQuadrant(Quadrant.ALL));
             updateQuadrantSelector();
             return;
         }
@@ -803,113 +2300,75 @@ import javax.swing.*;
         turn = Turn.SOLVING;
         updateStatus();
         currentPlanIterator = currentQuadrantPlan.iterator();
-        startNextSolverMove();
+        startSolverPlayback(this::divideAndConquerStep);
     }
-    
-    private void startNextSolverMove() {
-        if (solverTimer != null && solverTimer.isRunning()) solverTimer.stop();
-        
-        solverTimer = new javax.swing.Timer(250, new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent ev) {
-                if (gameOver) {
-                    solverTimer.stop();
-                    turn = Turn.HUMAN;
-                    updateStatus();
-                    return;
-                }
-                
-                // If current quadrant plan is done
-                if (!currentPlanIterator.hasNext()) {
-                    // Check if current quadrant is complete
-                    if (state.isCurrentQuadrantComplete()) {
-                        JOptionPane.showMessageDialog(Inertia.this, 
-                            "Quadrant " + state.currentQuadrant.toString().replace('_', ' ') + " complete!", 
-                            "Solver", JOptionPane.INFORMATION_MESSAGE);
-                        
-                        // Move to next quadrant
-                        currentSolverQuadrantIndex++;
-                        
-                        if (currentSolverQuadrantIndex < solverQuadrants.size()) {
-                            // Load next quadrant
-                            Quadrant nextQuadrant = solverQuadrants.get(currentSolverQuadrantIndex);
-                            state.currentQuadrant = nextQuadrant;
-                            updateQuadrantSelector();
-                            
-                            // Get plan for next quadrant
-                            currentQuadrantPlan = bfsSolveQuadrant(nextQuadrant);
-                            
-                            if (currentQuadrantPlan == null || currentQuadrantPlan.isEmpty()) {
-                                solverTimer.stop();
-                                JOptionPane.showMessageDialog(Inertia.this, 
-                                    "Cannot solve next quadrant. Stopping solver.", 
-                                    "Solver", JOptionPane.ERROR_MESSAGE);
-                                turn = Turn.HUMAN;
-                                return;
-                            }
-                            
-                            currentPlanIterator = currentQuadrantPlan.iterator();
-                            // Continue with next move - timer will automatically continue
-                        } else {
-                            // All quadrants done!
-                            solverTimer.stop();
-                            gameOver = true;
-                            updateStatus();
-                            board.repaint();
-                            JOptionPane.showMessageDialog(Inertia.this, 
-                                "Solved! All gems collected using Divide & Conquer!", 
-                                "Solver", JOptionPane.INFORMATION_MESSAGE);
-                            turn = Turn.HUMAN;
-                            state.currentQuadrant = Quadrant.ALL;
-                            updateQuadrantSelector();
-                        }
-                        return; // Important: exit to let timer continue with next cycle if needed
-                    } else {
-                        // Plan didn't complete the quadrant - try to replan
-                        currentQuadrantPlan = bfsSolveQuadrant(state.currentQuadrant);
-                        if (currentQuadrantPlan == null || currentQuadrantPlan.isEmpty()) {
-                            solverTimer.stop();
-                            JOptionPane.showMessageDialog(Inertia.this, 
-                                "Solver stuck. Stopping.", 
-                                "Solver", JOptionPane.ERROR_MESSAGE);
-                            turn = Turn.HUMAN;
-                            return;
-                        }
-                        currentPlanIterator = currentQuadrantPlan.iterator();
-                    }
+
+    // Applies the next plan move, loading or replanning quadrants as they finish.
+    // Returns false once playback has stopped.
+    private boolean divideAndConquerStep() {
+        if (gameOver) {
+            stopSolverPlayback();
+            return false;
+        }
+
+        // If current quadrant plan is done
+        if (!currentPlanIterator.hasNext()) {
+            // Check if current quadrant is complete
+            if (state.isCurrentQuadrantComplete()) {
+                showNotice("Quadrant " + state.currentQuadrant.toString().replace('_', ' ') + " complete!",
+                    "Solver", JOptionPane.INFORMATION_MESSAGE);
+
+                // Move to next quadrant, skipping any cleared in passing on the way into an earlier one
+                currentSolverQuadrantIndex++;
+                while (currentSolverQuadrantIndex < solverQuadrants.size()
+                        && state.isQuadrantComplete(solverQuadrants.get(currentSolverQuadrantIndex))) {
+                    currentSolverQuadrantIndex++;
                 }
-                
-                // Execute next move (only if we have a next move)
-                if (currentPlanIterator.hasNext()) {
-                    int dirIdx = currentPlanIterator.next();
-                    Vec dir = DIRS[dirIdx];
-                    
-                    lastMoverFill = new Color(30, 180, 90);
-                    lastMoverStroke = new Color(10, 120, 60);
-                    
-                    boolean died = slideFrom(state.ball, dir, true, false);
-                    if (died) {
-                        solverTimer.stop();
-                        JOptionPane.showMessageDialog(Inertia.this, 
-                            "Solver encountered a mine unexpectedly. Stopping.", 
-                            "Solver", JOptionPane.ERROR_MESSAGE);
-                        turn = Turn.HUMAN;
+
+                if (currentSolverQuadrantIndex < solverQuadrants.size()) {
+                    // Load next quadrant
+                    Quadrant nextQuadrant = solverQuadrants.get(currentSolverQuadrantIndex);
+                    setGameState(state.inQuadrant(nextQuadrant));
+                    updateQuadrantSelector();
+
+                    // Get plan for next quadrant
+                    currentQuadrantPlan = solveQuadrant(nextQuadrant);
+
+                    if (currentQuadrantPlan == null || currentQuadrantPlan.isEmpty()) {
+                        stopSolverPlayback();
+                        showNotice("Cannot solve next quadrant. Stopping solver.", "Solver", JOptionPane.ERROR_MESSAGE);
+                        return false;
                     }
-                    
-                    board.repaint();
+
+                    currentPlanIterator = currentQuadrantPlan.iterator();
+                    return true;
                 }
+                // All quadrants done!
+                stopSolverPlayback();
+                gameOver = true;
+                setGameState(state.inQuadrant(Quadrant.ALL));
+                updateQuadrantSelector();
+                showNotice("Solved! All gems collected using Divide & Conquer!", "Solver", JOptionPane.INFORMATION_MESSAGE);
+                return false;
             }
-        });
-        
-        solverTimer.setRepeats(true);
-        solverTimer.start();
+            // Plan didn't complete the quadrant - try to replan
+            currentQuadrantPlan = solveQuadrant(state.currentQuadrant);
+            if (currentQuadrantPlan == null || currentQuadrantPlan.isEmpty()) {
+                stopSolverPlayback();
+                showNotice("Solver stuck. Stopping.", "Solver", JOptionPane.ERROR_MESSAGE);
+                return false;
+            }
+            currentPlanIterator = currentQuadrantPlan.iterator();
+        }
+
+        return applySolverMove(currentPlanIterator.next());
     }
 
     // ===== Quadrant Solver (solves a specific quadrant) =====
     private void startQuadrantSolver() {
         if (state.currentQuadrant == Quadrant.ALL) return;
         
-        List<Integer> plan = bfsSolveQuadrant(state.currentQuadrant);
+        List<Integer> plan = solveQuadrant(state.currentQuadrant);
         if (plan == null || plan.isEmpty()) {
             JOptionPane.showMessageDialog(this, "No safe solution found for this quadrant.", "Solver", JOptionPane.WARNING_MESSAGE);
             return;
@@ -919,50 +2378,73 @@ import javax.swing.*;
         updateStatus();
 
         final Iterator<Integer> it = plan.iterator();
-        if (solverTimer != null && solverTimer.isRunning()) solverTimer.stop();
-        solverTimer = new javax.swing.Timer(250, ev -> {
-            if (gameOver) { solverTimer.stop(); turn = Turn.HUMAN; updateStatus(); return; }
+        startSolverPlayback(() -> {
+            if (gameOver) { stopSolverPlayback(); return false; }
             if (!it.hasNext()) {
-                solverTimer.stop();
-                
+                stopSolverPlayback();
                 if (state.isCurrentQuadrantComplete()) {
-                    JOptionPane.showMessageDialog(this, 
-                        "Quadrant solved! " + state.currentQuadrant.toString().replace('_', ' ') + " complete.", 
+                    showNotice("Quadrant solved! " + state.currentQuadrant.toString().replace('_', ' ') + " complete.",
                         "Solver", JOptionPane.INFORMATION_MESSAGE);
-                    
+
                     // Move to next quadrant if any
                     Quadrant next = state.getNextQuadrant();
                     if (next != state.currentQuadrant) {
-                        state.currentQuadrant = next;
+                        setGameState(state.inQuadrant(next));
                         updateQuadrantSelector();
                     }
                 }
-                
-                turn = Turn.HUMAN;
-                updateStatus();
-                return;
+                return false;
             }
-            
-            int dirIdx = it.next();
-            Vec dir = DIRS[dirIdx];
-            
-            lastMoverFill = new Color(30, 180, 90);
-            lastMoverStroke = new Color(10, 120, 60);
+            return applySolverMove(it.next());
+        });
+    }
 
-            boolean died = slideFrom(state.ball, dir, true, false);
-            if (died) {
-                solverTimer.stop();
-                JOptionPane.showMessageDialog(this, "Solver encountered a mine unexpectedly. Stopping.", "Solver", JOptionPane.ERROR_MESSAGE);
-                turn = Turn.HUMAN;
+    // ===== Solver playback =====
+    // Each tick applies up to movesPerTick plan moves (bounded by a time slice), then updates
+    // the status bar and repaints once for the whole batch.
+    private void startSolverPlayback(BooleanSupplier step) {
+        if (solverTimer != null && solverTimer.isRunning()) solverTimer.stop();
+        solverTimer = new javax.swing.Timer(playbackSpeed.delayMs, ev -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < playbackSpeed.movesPerTick; i++) {
+                if (!step.getAsBoolean() || System.nanoTime() - start > PLAYBACK_SLICE_NANOS) break;
             }
-
+            updateStatus();
             board.repaint();
         });
         solverTimer.setRepeats(true);
         solverTimer.start();
     }
 
-    private List<Integer> bfsSolveQuadrant(Quadrant targetQuadrant) {
+    private void stopSolverPlayback() {
+        if (solverTimer != null) solverTimer.stop();
+        turn = Turn.HUMAN;
+        speculateComputerReplies();
+    }
+
+    private boolean applySolverMove(int dirIdx) {
+        lastMoverFill = new Color(30, 180, 90);
+        lastMoverStroke = new Color(10, 120, 60);
+
+        Engine.MoveEvent move = Engine.apply(state, dirIdx, Mover.SOLVER);
+        setGameState(move.state);
+        if (move.died) {
+            stopSolverPlayback();
+            showNotice("Solver encountered a mine unexpectedly. Stopping.", "Solver", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
+    // Non-modal, so playback keeps going behind it; a newer notice replaces the old one
+    private void showNotice(String message, String title, int messageType) {
+        if (notice != null) notice.dispose();
+        notice = new JOptionPane(message, messageType).createDialog(this, title);
+        notice.setModal(false);
+        notice.setVisible(true);
+    }
+
+    static List<Integer> bfsSolveQuadrant(GameState state, Quadrant targetQuadrant, Consumer<SolverMetrics> sink) {
         int rows = state.grid.rows, cols = state.grid.cols;
         int midR = rows / 2;
         int midC = cols / 2;
@@ -972,25 +2454,20 @@ import javax.swing.*;
         for (int[] row : gemIndex) Arrays.fill(row, -1);
 
         int gemCount = 0;
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                if (state.gemPresent[r][c]) {
-                    boolean inTarget = false;
-                    if (targetQuadrant == Quadrant.TOP_LEFT && r < midR && c < midC) inTarget = true;
-                    else if (targetQuadrant == Quadrant.TOP_RIGHT && r < midR && c >= midC) inTarget = true;
-                    else if (targetQuadrant == Quadrant.BOTTOM_LEFT && r >= midR && c < midC) inTarget = true;
-                    else if (targetQuadrant == Quadrant.BOTTOM_RIGHT && r >= midR && c >= midC) inTarget = true;
-                    
-                    if (inTarget) {
-                        gemIndex[r][c] = gemCount++;
-                    }
-                }
-            }
+        long[] targetGems = Bits.and(state.gems, state.grid.quadrants[targetQuadrant.ordinal()]);
+        for (int i = Bits.next(targetGems, 0); i >= 0; i = Bits.next(targetGems, i + 1)) {
+            gemIndex[state.grid.row(i)][state.grid.col(i)] = gemCount++;
         }
 
-        if (gemCount == 0) return Collections.emptyList();
+        SolverMetrics metrics = SolverMetrics.start("quadrant " + targetQuadrant, state.grid, gemCount, SolverMetrics.DENSE);
+        gemCount = clusterGems(state.grid, gemIndex, state.grid.quadrants[targetQuadrant.ordinal()],
+                               state.grid.index(state.ball));
+        if (gemCount < 0) return finishSolve(sink, metrics, null);
+        metrics.maskBits = gemCount;
+        if (gemCount == 0) return finishSolve(sink, metrics, Collections.emptyList());
 
         int fullMask = (1 << gemCount) - 1;
+        int[] rayGems = rayGemMasks(state.grid, gemIndex, gemCount);
 
         class Node {
             final int r, c, mask, dirIdx;
@@ -1020,32 +2497,66 @@ import javax.swing.*;
 
         while (!q.isEmpty()) {
             Node cur = q.poll();
+            metrics.expand();
             if (cur.mask == fullMask) {
-                return reconstructPath(prevR, prevC, prevM, prevDir, cur.r, cur.c, cur.mask);
+                return finishSolve(sink, metrics, reconstructPath(prevR, prevC, prevM, prevDir, cur.r, cur.c, cur.mask));
             }
 
             for (int di = 0; di < DIRS.length; di++) {
-                Vec dir = DIRS[di];
-                SlideResult sr = slideForSolver(cur.r, cur.c, dir, state.grid, gemIndex, cur.mask);
+                SlideResult sr = slideForSolver(cur.r, cur.c, di, state.grid, rayGems, cur.mask);
                 if (!sr.moved || sr.died) continue;
                 
                 // Ensure we stay in target quadrant
                 if (!isInQuadrant(sr.r, sr.c, targetQuadrant, midR, midC)) continue;
                 
-                if (!visited[sr.r][sr.c][sr.mask]) {
+                metrics.statesGenerated++;
+                if (visited[sr.r][sr.c][sr.mask]) {
+                    metrics.duplicateHits++;
+                } else {
                     visited[sr.r][sr.c][sr.mask] = true;
                     prevR[sr.r][sr.c][sr.mask] = cur.r;
                     prevC[sr.r][sr.c][sr.mask] = cur.c;
                     prevM[sr.r][sr.c][sr.mask] = cur.mask;
                     prevDir[sr.r][sr.c][sr.mask] = di;
                     q.add(new Node(sr.r, sr.c, sr.mask, di));
+                    metrics.frontier(q.size());
                 }
             }
         }
-        return null;
+        return finishSolve(sink, metrics, null);
+    }
+
+    private static List<Integer> finishSolve(Consumer<SolverMetrics> sink, SolverMetrics metrics, List<Integer> plan) {
+        metrics.finish(plan);
+        if (sink != null) sink.accept(metrics);
+        return plan;
+    }
+
+    private List<Integer> solveQuadrant(Quadrant q) {
+        try {
+            return Engine.solveQuadrant(state, q, this::recordSolverMetrics);
+        } catch (IllegalArgumentException ex) {
+            showNotice(ex.getMessage(), "Solver", JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+    }
+
+    private void recordSolverMetrics(SolverMetrics metrics) {
+        synchronized (solverHistory) {
+            solverHistory.addFirst(metrics);
+            if (solverHistory.size() > SOLVER_HISTORY) solverHistory.removeLast();
+        }
+    }
+
+    SolverMetrics lastSolverMetrics() {
+        synchronized (solverHistory) { return solverHistory.peekFirst(); }
     }
 
-    private boolean isInQuadrant(int r, int c, Quadrant q, int midR, int midC) {
+    List<SolverMetrics> solverMetrics() {
+        synchronized (solverHistory) { return new ArrayList<>(solverHistory); }
+    }
+
+    private static boolean isInQuadrant(int r, int c, Quadrant q, int midR, int midC) {
         switch (q) {
             case TOP_LEFT: return r < midR && c < midC;
             case TOP_RIGHT: return r < midR && c >= midC;
@@ -1055,32 +2566,56 @@ import javax.swing.*;
         }
     }
 
-    // ===== Original Solver (kept for reference, but not used by Solve game button anymore) =====
-    private List<Integer> bfsSolveCurrentState() {
+    // ===== Whole-board BFS solver: the solve service's default through Engine.solveAll =====
+    static final int MAX_MASK_BITS = 20;
+
+    static List<Integer> bfsSolveCurrentState(GameState state, Consumer<SolverMetrics> sink) {
+        return bfsSolveCurrentState(state, sink, false);
+    }
+
+    // The dense arrays hold rows * cols << bits entries each, reached or not; packed stores only the states
+    // the search reaches, for callers that run several solves on one heap
+    static List<Integer> bfsSolveCurrentState(GameState state, Consumer<SolverMetrics> sink, boolean packed) {
         int rows = state.grid.rows, cols = state.grid.cols;
 
         int[][] gemIndex = new int[rows][cols];
         for (int[] row : gemIndex) Arrays.fill(row, -1);
 
         int gemCount = 0;
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                if (state.gemPresent[r][c]) {
-                    gemIndex[r][c] = gemCount++;
-                }
-            }
+        for (int i = Bits.next(state.gems, 0); i >= 0; i = Bits.next(state.gems, i + 1)) {
+            gemIndex[state.grid.row(i)][state.grid.col(i)] = gemCount++;
         }
 
-        if (gemCount == 0) return Collections.emptyList();
-        if (gemCount > 20) gemCount = 20;
+        SolverMetrics metrics = SolverMetrics.start("full board", state.grid, gemCount, SolverMetrics.DENSE);
+        gemCount = clusterGems(state.grid, gemIndex, null, state.grid.index(state.ball));
+        if (gemCount < 0) return finishSolve(sink, metrics, null);
+        if (gemCount == 0) return finishSolve(sink, metrics, Collections.emptyList());
+        // Past this the mask cannot be searched; refuse rather than plan for part of the gems
+        if (gemCount > MAX_MASK_BITS)
+            throw new IllegalArgumentException("Level needs " + gemCount + " gem bits after clustering; the solver handles " + MAX_MASK_BITS);
+        metrics.maskBits = gemCount;
 
         int fullMask = (1 << gemCount) - 1;
+        int[] rayGems = rayGemMasks(state.grid, gemIndex, gemCount);
 
+        if (packed) {
+            metrics.storage = SolverMetrics.HASH;
+            return bfsSolveWithHashVisited(state, gemIndex, gemCount, fullMask, metrics, sink);
+        }
         boolean[][][] visited;
+        int[][][] prevR, prevC, prevM, prevDir;
         try {
             visited = new boolean[rows][cols][1 << gemCount];
+            prevR = new int[rows][cols][1 << gemCount];
+            prevC = new int[rows][cols][1 << gemCount];
+            prevM = new int[rows][cols][1 << gemCount];
+            prevDir = new int[rows][cols][1 << gemCount];
         } catch (OutOfMemoryError oom) {
-            return bfsSolveWithHashVisited(gemIndex, gemCount, fullMask);
+            // Drop whatever was allocated so the fallback does not run with it still reachable
+            visited = null;
+            prevR = prevC = prevM = prevDir = null;
+            metrics.storage = SolverMetrics.HASH;
+            return bfsSolveWithHashVisited(state, gemIndex, gemCount, fullMask, metrics, sink);
         }
 
         class Node {
@@ -1096,10 +2631,6 @@ import javax.swing.*;
         visited[startR][startC][startMask] = true;
         q.add(new Node(startR, startC, startMask, -1));
 
-        int[][][] prevR = new int[rows][cols][1 << gemCount];
-        int[][][] prevC = new int[rows][cols][1 << gemCount];
-        int[][][] prevM = new int[rows][cols][1 << gemCount];
-        int[][][] prevDir = new int[rows][cols][1 << gemCount];
         for (int r = 0; r < rows; r++)
             for (int c = 0; c < cols; c++)
                 Arrays.fill(prevDir[r][c], -2);
@@ -1108,82 +2639,84 @@ import javax.swing.*;
 
         while (!q.isEmpty()) {
             Node cur = q.poll();
+            metrics.expand();
             if (cur.mask == fullMask) {
-                return reconstructPath(prevR, prevC, prevM, prevDir, cur.r, cur.c, cur.mask);
+                return finishSolve(sink, metrics, reconstructPath(prevR, prevC, prevM, prevDir, cur.r, cur.c, cur.mask));
             }
 
             for (int di = 0; di < DIRS.length; di++) {
-                Vec dir = DIRS[di];
-                SlideResult sr = slideForSolver(cur.r, cur.c, dir, state.grid, gemIndex, cur.mask);
+                SlideResult sr = slideForSolver(cur.r, cur.c, di, state.grid, rayGems, cur.mask);
                 if (!sr.moved || sr.died) continue;
-                if (!visited[sr.r][sr.c][sr.mask]) {
+                metrics.statesGenerated++;
+                if (visited[sr.r][sr.c][sr.mask]) {
+                    metrics.duplicateHits++;
+                } else {
                     visited[sr.r][sr.c][sr.mask] = true;
                     prevR[sr.r][sr.c][sr.mask] = cur.r;
                     prevC[sr.r][sr.c][sr.mask] = cur.c;
                     prevM[sr.r][sr.c][sr.mask] = cur.mask;
                     prevDir[sr.r][sr.c][sr.mask] = di;
                     q.add(new Node(sr.r, sr.c, sr.mask, di));
+                    metrics.frontier(q.size());
                 }
             }
         }
-        return null;
+        return finishSolve(sink, metrics, null);
     }
 
-    private List<Integer> bfsSolveWithHashVisited(int[][] gemIndex, int gemCount, int fullMask) {
-        int rows = state.grid.rows, cols = state.grid.cols;
+    private static List<Integer> bfsSolveWithHashVisited(GameState state, int[][] gemIndex, int gemCount, int fullMask,
+                                                         SolverMetrics metrics, Consumer<SolverMetrics> sink) {
+        Grid grid = state.grid;
+        int[] rayGems = rayGemMasks(grid, gemIndex, gemCount);
 
-        class Key {
-            final int r, c, mask;
-            Key(int r, int c, int mask) { this.r = r; this.c = c; this.mask = mask; }
-            @Override public boolean equals(Object o) {
-                if (!(o instanceof Key)) return false;
-                Key k = (Key) o;
-                return r == k.r && c == k.c && mask == k.mask;
-            }
-            @Override public int hashCode() { return Objects.hash(r, c, mask); }
-        }
-        class Node {
-            final int r, c, mask;
-            Node(int r, int c, int mask) { this.r = r; this.c = c; this.mask = mask; }
-        }
-        Map<Key, Key> prev = new HashMap<>();
-        Map<Key, Integer> prevDir = new HashMap<>();
+        // A state packs as cell + mask * size. States are appended in BFS order, so the
+        // arrays are the queue as well as the parent links.
+        long[] states = new long[1 << 12];
+        int[] parent = new int[states.length];
+        byte[] moveDir = new byte[states.length];
+        LongSet visited = new LongSet(states.length);
 
-        ArrayDeque<Node> q = new ArrayDeque<>();
         int startR = state.ball.r, startC = state.ball.c;
         int startMask = 0;
         if (gemIndex[startR][startC] != -1) startMask |= 1 << gemIndex[startR][startC];
-        Key startKey = new Key(startR, startC, startMask);
-
-        Set<Key> visited = new HashSet<>();
-        visited.add(startKey);
-        q.add(new Node(startR, startC, startMask));
-        prev.put(startKey, null);
-        prevDir.put(startKey, -1);
-
-        while (!q.isEmpty()) {
-            Node cur = q.poll();
-            Key curKey = new Key(cur.r, cur.c, cur.mask);
-            if (cur.mask == fullMask) {
-                return reconstructPath(prev, prevDir, curKey);
+        states[0] = grid.index(startR, startC) + (long) startMask * grid.size;
+        parent[0] = -1;
+        moveDir[0] = -1;
+        visited.add(states[0]);
+        int tail = 1;
+
+        for (int head = 0; head < tail; head++) {
+            int cell = (int) (states[head] % grid.size), mask = (int) (states[head] / grid.size);
+            metrics.expand();
+            if (mask == fullMask) {
+                return finishSolve(sink, metrics, reconstructPath(parent, moveDir, head));
             }
+            int r = grid.row(cell), c = grid.col(cell);
             for (int di = 0; di < DIRS.length; di++) {
-                Vec dir = DIRS[di];
-                SlideResult sr = slideForSolver(cur.r, cur.c, dir, state.grid, gemIndex, cur.mask);
+                SlideResult sr = slideForSolver(r, c, di, grid, rayGems, mask);
                 if (!sr.moved || sr.died) continue;
-                Key nextKey = new Key(sr.r, sr.c, sr.mask);
-                if (!visited.contains(nextKey)) {
-                    visited.add(nextKey);
-                    prev.put(nextKey, curKey);
-                    prevDir.put(nextKey, di);
-                    q.add(new Node(sr.r, sr.c, sr.mask));
+                long next = grid.index(sr.r, sr.c) + (long) sr.mask * grid.size;
+                metrics.statesGenerated++;
+                if (!visited.add(next)) {
+                    metrics.duplicateHits++;
+                    continue;
                 }
+                if (tail == states.length) {
+                    states = Arrays.copyOf(states, tail * 2);
+                    parent = Arrays.copyOf(parent, tail * 2);
+                    moveDir = Arrays.copyOf(moveDir, tail * 2);
+                }
+                states[tail] = next;
+                parent[tail] = head;
+                moveDir[tail] = (byte) di;
+                tail++;
+                metrics.frontier(tail - head - 1);
             }
         }
-        return null;
+        return finishSolve(sink, metrics, null);
     }
 
-    private List<Integer> reconstructPath(int[][][] prevR, int[][][] prevC, int[][][] prevM, int[][][] prevDir, int endR, int endC, int endM) {
+    private static List<Integer> reconstructPath(int[][][] prevR, int[][][] prevC, int[][][] prevM, int[][][] prevDir, int endR, int endC, int endM) {
         List<Integer> dirs = new ArrayList<>();
         int r = endR, c = endC, m = endM;
         while (true) {
@@ -1199,24 +2732,635 @@ import javax.swing.*;
         return dirs;
     }
 
-    private List<Integer> reconstructPath(Map<?, ?> prevGeneric, Map<?, ?> prevDirGeneric, Object endKey) {
-        @SuppressWarnings("unchecked")
-        Map<Object, Object> prev = (Map<Object, Object>) prevGeneric;
-        @SuppressWarnings("unchecked")
-        Map<Object, Integer> prevDir = (Map<Object, Integer>) prevDirGeneric;
-
+    private static List<Integer> reconstructPath(int[] parent, byte[] moveDir, int end) {
         List<Integer> dirs = new ArrayList<>();
-        Object cur = endKey;
-        while (true) {
-            Integer d = prevDir.get(cur);
-            if (d == null || d == -1) break;
-            dirs.add(d);
-            cur = prev.get(cur);
-        }
+        for (int i = end; parent[i] != -1; i = parent[i]) dirs.add((int) moveDir[i]);
         Collections.reverse(dirs);
         return dirs;
     }
 
+    // ===== Solver model shared by the depth-first solvers =====
+    // slideForSolver's move model over one target (a quadrant or the whole board), with gem bits,
+    // the gems each slide picks up and per-gem distances for lower bounds.
+    static final class SolverModel {
+        static final int FAR = 250;     // distance of a gem no allowed slide can reach
+
+        final Grid grid;
+        final long[] scope;             // allowed landing cells, null for the whole board
+        final int gemCount, fullMask;   // mask bits after clustering, at most 31
+        final boolean unreachable;      // some target gem no allowed slide crosses; nothing to search
+        final int[] rayGems;            // gem bits picked up per (cell, direction)
+        final int start, startMask;
+        private final int maxPerSlide;
+        private final int[][] cover;    // per gem: slides needed from a cell until one picks it up
+
+        SolverModel(GameState state, Quadrant target) {
+            grid = state.grid;
+            scope = target == Quadrant.ALL ? null : grid.quadrants[target.ordinal()];
+            long[] targetGems = scope == null ? state.gems : Bits.and(state.gems, scope);
+
+            int[][] gemIndex = new int[grid.rows][grid.cols];
+            for (int[] row : gemIndex) Arrays.fill(row, -1);
+            int n = 0;
+            for (int i = Bits.next(targetGems, 0); i >= 0; i = Bits.next(targetGems, i + 1)) {
+                gemIndex[grid.row(i)][grid.col(i)] = n++;
+            }
+            int bits = clusterGems(grid, gemIndex, scope, grid.index(state.ball));
+            unreachable = bits < 0;
+            gemCount = Math.max(bits, 0);
+            // The mask is an int; truncating it would make "optimal" plans that skip gems
+            if (gemCount > 31)
+                throw new IllegalArgumentException("Level needs " + gemCount + " gem bits after clustering; the solver handles 31");
+            fullMask = (int) ((1L << gemCount) - 1);
+            rayGems = rayGemMasks(grid, gemIndex, gemCount);
+            int most = 1;
+            for (int m : rayGems) most = Math.max(most, Integer.bitCount(m));
+            maxPerSlide = most;
+            start = grid.index(state.ball);
+            int b = gemIndex[state.ball.r][state.ball.c];
+            startMask = b >= 0 && b < gemCount ? 1 << b : 0;
+            cover = coverDistances();
+        }
+
+        // Landing cell of an allowed slide, -1 when it does not move, hits a mine or leaves the scope
+        int end(int cell, int dir) {
+            int slide = grid.slide(cell, dir), end = Grid.end(slide);
+            if (end == cell || Grid.hitsMine(slide)) return -1;
+            if (scope != null && !Bits.get(scope, end)) return -1;
+            return end;
+        }
+
+        // Admissible: the farthest remaining gem, and gems left over the most one slide can collect
+        int bound(int cell, int mask) {
+            int left = fullMask & ~mask;
+            int h = (Integer.bitCount(left) + maxPerSlide - 1) / maxPerSlide;
+            for (int m = left; m != 0; m &= m - 1) {
+                int d = cover[Integer.numberOfTrailingZeros(m)][cell];
+                if (d > h) h = d;
+            }
+            return h;
+        }
+
+        // Backward BFS per gem over the allowed slides, seeded by the slides that cross it
+        private int[][] coverDistances() {
+            int size = grid.size, dirs = DIRS.length;
+            int[] revStart = new int[size + 1];
+            for (int e = 0; e < size * dirs; e++) {
+                int end = end(e / dirs, e % dirs);
+                if (end >= 0) revStart[end + 1]++;
+            }
+            for (int i = 0; i < size; i++) revStart[i + 1] += revStart[i];
+            int[] revFrom = new int[revStart[size]];
+            int[] fill = Arrays.copyOf(revStart, size);
+            for (int e = 0; e < size * dirs; e++) {
+                int end = end(e / dirs, e % dirs);
+                if (end >= 0) revFrom[fill[end]++] = e / dirs;
+            }
+
+            int[][] out = new int[gemCount][size];
+            int[] queue = new int[size];
+            for (int b = 0; b < gemCount; b++) {
+                int[] dist = out[b];
+                Arrays.fill(dist, FAR);
+                int qh = 0, qt = 0;
+                for (int cell = 0; cell < size; cell++) {
+                    for (int d = 0; d < dirs; d++) {
+                        if ((rayGems[cell * dirs + d] >> b & 1) != 0 && end(cell, d) >= 0) {
+                            dist[cell] = 1;
+                            queue[qt++] = cell;
+                            break;
+                        }
+                    }
+                }
+                while (qh < qt) {
+                    int v = queue[qh++];
+                    for (int j = revStart[v]; j < revStart[v + 1]; j++) {
+                        int u = revFrom[j];
+                        if (dist[u] > dist[v] + 1) { dist[u] = dist[v] + 1; queue[qt++] = u; }
+                    }
+                }
+            }
+            return out;
+        }
+    }
+
+    // ===== IDA* Solver (optimal plans with memory capped by a fixed transposition table) =====
+    // Same move model as slideForSolver. The table is set-associative over primitive arrays; a full
+    // set evicts with a clock hand that gives recently hit entries a second chance.
+    static final class IdaStarSolver {
+        static final int WAYS = 4;
+        static final int MAX_DEPTH = SolverModel.FAR;
+        private static final int FOUND = -1, INF = Integer.MAX_VALUE;
+
+        private final int sets;
+        private long[] keys;           // cell + mask * size + 1, 0 when the slot is empty
+        private int[] iteration;       // deepening iteration the entry was written in
+        private short[] depth;         // smallest g the state was reached at in that iteration
+        private byte[] ref;            // second-chance bit
+        private byte[] hand;           // clock hand per set
+
+        private SolverModel model;
+        private int iter, planLength;
+        private final int[] path = new int[MAX_DEPTH];
+        private SolverMetrics metrics;
+
+        // -Dinertia.idaTableEntries, rounded down to a power of two; about 16 bytes per entry
+        static int tableEntries() {
+            return Math.max(WAYS, Integer.getInteger("inertia.idaTableEntries", 1 << 20));
+        }
+
+        IdaStarSolver(int entries) {
+            sets = Integer.highestOneBit(Math.max(1, entries / WAYS));
+        }
+
+        List<Integer> solve(GameState state, Quadrant target, Consumer<SolverMetrics> sink) {
+            String name = target == Quadrant.ALL ? "ida full board" : "ida quadrant " + target;
+            metrics = SolverMetrics.start(name, state.grid, targetGems(state, target), SolverMetrics.TABLE);
+            model = new SolverModel(state, target);
+            metrics.maskBits = model.gemCount;
+            if (model.unreachable) return finishSolve(sink, metrics, null);
+            if (model.gemCount == 0) return finishSolve(sink, metrics, Collections.emptyList());
+
+            // Allocated here so the run's metrics include the table
+            keys = new long[sets * WAYS];
+            iteration = new int[sets * WAYS];
+            depth = new short[sets * WAYS];
+            ref = new byte[sets * WAYS];
+            hand = new byte[sets];
+            iter = 0;
+
+            int bound = model.bound(model.start, model.startMask);
+            while (bound < MAX_DEPTH) {
+                iter++;
+                int t = search(model.start, model.startMask, 0, bound);
+                if (t == FOUND) return finishSolve(sink, metrics, planOf(path, planLength));
+                if (t == INF) break;
+                bound = t;
+            }
+            return finishSolve(sink, metrics, null);
+        }
+
+        // FOUND, or the smallest f above bound seen below this node (INF when nothing is left)
+        private int search(int cell, int mask, int g, int bound) {
+            metrics.expand();
+            metrics.frontier(g);   // the path is all IDA* keeps besides the table
+            if (mask == model.fullMask) {
+                planLength = g;
+                return FOUND;
+            }
+            int f = g + model.bound(cell, mask);
+            if (f > bound) return f;
+            if (!record(cell, mask, g)) {
+                metrics.duplicateHits++;
+                return INF;
+            }
+
+            int min = INF;
+            // Slides that pick up gems first, then the rest
+            for (int pass = 0; pass < 2; pass++) {
+                for (int d = 0; d < DIRS.length; d++) {
+                    int e = cell * DIRS.length + d;
+                    boolean gains = (model.rayGems[e] & ~mask) != 0;
+                    if (gains != (pass == 0)) continue;
+                    int end = model.end(cell, d);
+                    if (end < 0) continue;
+                    metrics.statesGenerated++;
+                    path[g] = d;
+                    int t = search(end, mask | model.rayGems[e], g + 1, bound);
+                    if (t == FOUND) return FOUND;
+                    if (t < min) min = t;
+                }
+            }
+            return min;
+        }
+
+        // False when the state was already expanded this iteration at the same or a smaller depth
+        private boolean record(int cell, int mask, int g) {
+            long key = cell + (long) mask * model.grid.size + 1;
+            int set = (int) (mix(key) & (sets - 1)) * WAYS;
+            for (int w = set; w < set + WAYS; w++) {
+                if (keys[w] != key) continue;
+                ref[w] = 1;
+                if (iteration[w] == iter && depth[w] <= g) return false;
+                iteration[w] = iter;
+                depth[w] = (short) g;
+                return true;
+            }
+            int victim = -1;
+            for (int w = set; w < set + WAYS; w++) if (keys[w] == 0) { victim = w; break; }
+            if (victim < 0) {
+                int h = hand[set / WAYS];
+                while (ref[set + h] != 0) {
+                    ref[set + h] = 0;
+                    h = (h + 1) % WAYS;
+                }
+                victim = set + h;
+                hand[set / WAYS] = (byte) ((h + 1) % WAYS);
+            }
+            keys[victim] = key;
+            iteration[victim] = iter;
+            depth[victim] = (short) g;
+            ref[victim] = 0;
+            return true;
+        }
+
+        static long mix(long k) {
+            k *= 0x9E3779B97F4A7C15L;
+            return k ^ (k >>> 29);
+        }
+    }
+
+    // ===== Branch & Bound Solver (depth-first, greedy incumbent, packing lower bound) =====
+    // Two gems that no single allowed slide crosses together need two different slides, so any set of
+    // pairwise "unshareable" gems is a lower bound on the slides left (a feasible packing, the dual of
+    // the set-cover LP). Memory is the path plus a small direct-mapped table of best depths per state.
+    static final class BranchAndBoundSolver {
+        static final int TABLE_BITS = 16;
+
+        private final long[] keys = new long[1 << TABLE_BITS];
+        private final short[] depth = new short[1 << TABLE_BITS];
+        private SolverModel model;
+        private int[] shareable;        // per gem: gems some allowed slide picks up together with it
+        private int best;               // incumbent plan length; only shorter plans are searched
+        private int[] bestPath;
+        private final int[] path = new int[SolverModel.FAR];
+        private final int[] order = new int[SolverModel.FAR * DIRS.length];   // move order per depth
+        private SolverMetrics metrics;
+
+        List<Integer> solve(GameState state, Quadrant target, Consumer<SolverMetrics> sink) {
+            String name = target == Quadrant.ALL ? "bnb full board" : "bnb quadrant " + target;
+            metrics = SolverMetrics.start(name, state.grid, targetGems(state, target), SolverMetrics.TABLE);
+            model = new SolverModel(state, target);
+            metrics.maskBits = model.gemCount;
+            if (model.unreachable) return finishSolve(sink, metrics, null);
+            if (model.gemCount == 0) return finishSolve(sink, metrics, Collections.emptyList());
+
+            shareable = new int[model.gemCount];
+            for (int cell = 0; cell < model.grid.size; cell++) {
+                for (int d = 0; d < DIRS.length; d++) {
+                    int m = model.rayGems[cell * DIRS.length + d];
+                    if (m == 0 || model.end(cell, d) < 0) continue;
+                    for (int r = m; r != 0; r &= r - 1) shareable[Integer.numberOfTrailingZeros(r)] |= m;
+                }
+            }
+            // A gem no allowed slide crosses can never be collected; it would also stall the packing loop
+            for (int b = 0; b < model.gemCount; b++) {
+                if (shareable[b] == 0 && (model.startMask & 1 << b) == 0) return finishSolve(sink, metrics, null);
+                shareable[b] |= 1 << b;
+            }
+
+            best = SolverModel.FAR;
+            bestPath = greedyPlan();
+            if (bestPath != null) best = bestPath.length;
+            search(model.start, model.startMask, 0);
+            return finishSolve(sink, metrics, bestPath == null ? null : planOf(bestPath, bestPath.length));
+        }
+
+        private void search(int cell, int mask, int g) {
+            metrics.expand();
+            metrics.frontier(g);
+            if (mask == model.fullMask) {
+                best = g;
+                bestPath = Arrays.copyOf(path, g);
+                return;
+            }
+            if (g + lowerBound(cell, mask) >= best) return;
+            if (!record(cell, mask, g)) {
+                metrics.duplicateHits++;
+                return;
+            }
+
+            // Biggest pickups first so good incumbents turn up early
+            int base = g * DIRS.length, n = 0;
+            for (int d = 0; d < DIRS.length; d++) {
+                if (model.end(cell, d) < 0) continue;
+                int gain = Integer.bitCount(model.rayGems[cell * DIRS.length + d] & ~mask);
+                int k = base + n++;
+                while (k > base && (order[k - 1] >>> 8) < gain) { order[k] = order[k - 1]; k--; }
+                order[k] = gain << 8 | d;
+            }
+            for (int i = 0; i < n && g + 1 < best; i++) {
+                int d = order[base + i] & 0xFF;
+                metrics.statesGenerated++;
+                path[g] = d;
+                search(model.end(cell, d), mask | model.rayGems[cell * DIRS.length + d], g + 1);
+            }
+        }
+
+        private int lowerBound(int cell, int mask) {
+            int left = model.fullMask & ~mask;
+            int packing = 0;
+            for (int open = left; open != 0; packing++) {
+                open &= ~shareable[Integer.numberOfTrailingZeros(open)];
+            }
+            return Math.max(packing, model.bound(cell, mask));
+        }
+
+        // False when the state was already searched at the same or a smaller depth
+        private boolean record(int cell, int mask, int g) {
+            long key = cell + (long) mask * model.grid.size + 1;
+            int slot = (int) (IdaStarSolver.mix(key) & (keys.length - 1));
+            if (keys[slot] == key && depth[slot] <= g) return false;
+            keys[slot] = key;
+            depth[slot] = (short) g;
+            return true;
+        }
+
+        // Repeatedly takes the fewest slides to the next pickup; null when some gem is unreachable
+        private int[] greedyPlan() {
+            int size = model.grid.size, dirs = DIRS.length;
+            int[] prevEdge = new int[size], queue = new int[size];
+            List<Integer> plan = new ArrayList<>();
+            int cell = model.start, mask = model.startMask;
+            while (mask != model.fullMask && plan.size() < SolverModel.FAR) {
+                Arrays.fill(prevEdge, -2);
+                prevEdge[cell] = -1;
+                int qh = 0, qt = 0, pickup = -1;
+                queue[qt++] = cell;
+                while (qh < qt && pickup < 0) {
+                    int v = queue[qh++];
+                    for (int d = 0; d < dirs && pickup < 0; d++) {
+                        int w = model.end(v, d);
+                        if (w < 0) continue;
+                        if ((model.rayGems[v * dirs + d] & ~mask) != 0) pickup = v * dirs + d;
+                        else if (prevEdge[w] == -2) { prevEdge[w] = v * dirs + d; queue[qt++] = w; }
+                    }
+                }
+                if (pickup < 0) return null;
+                int at = plan.size();
+                for (int e = prevEdge[pickup / dirs]; e >= 0; e = prevEdge[e / dirs]) plan.add(at, e % dirs);
+                plan.add(pickup % dirs);
+                mask |= model.rayGems[pickup];
+                cell = model.end(pickup / dirs, pickup % dirs);
+            }
+            if (mask != model.fullMask) return null;
+            int[] out = new int[plan.size()];
+            for (int i = 0; i < out.length; i++) out[i] = plan.get(i);
+            return out;
+        }
+    }
+
+    private static int targetGems(GameState state, Quadrant target) {
+        if (target == Quadrant.ALL) return Bits.count(state.gems);
+        return Bits.countAnd(state.gems, state.grid.quadrants[target.ordinal()]);
+    }
+
+    private static List<Integer> planOf(int[] dirs, int length) {
+        List<Integer> out = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) out.add(dirs[i]);
+        return out;
+    }
+
+    // ===== Weighted solver: Dijkstra over (cell, mask) with a bucket queue =====
+    // Minimises moveWeight per slide plus cellWeight per cell slid (-Dinertia.solverCost=move,cell;
+    // the default 0,1 counts cells traversed, i.e. playback time). Edge costs are read off the slide
+    // table, and being small integers they index a circular array of buckets (Dial's algorithm)
+    // instead of a heap. States are stored sparsely: only the ones reached get an entry.
+    static final class DijkstraSolver {
+        final int moveWeight, cellWeight;
+
+        private long[] keys;            // state = cell + mask * size, by discovery order
+        private int[] dist, parent;
+        private byte[] moveDir;
+        private boolean[] done;
+        private int states;
+        private int[][] buckets;
+        private int[] fill;
+
+        DijkstraSolver(int moveWeight, int cellWeight) {
+            if (moveWeight < 0 || cellWeight < 0 || moveWeight + cellWeight == 0)
+                throw new IllegalArgumentException("Cost weights must be non-negative and not both zero");
+            this.moveWeight = moveWeight;
+            this.cellWeight = cellWeight;
+        }
+
+        // "move,cell"
+        static DijkstraSolver fromProperty() {
+            String[] p = System.getProperty("inertia.solverCost", "0,1").split(",");
+            if (p.length != 2) throw new IllegalArgumentException("Expected -Dinertia.solverCost=move,cell");
+            return new DijkstraSolver(Integer.parseInt(p[0].trim()), Integer.parseInt(p[1].trim()));
+        }
+
+        // A slide covers as many cells as the larger of its row and column offsets
+        int cost(Grid grid, int from, int end) {
+            int cells = Math.max(Math.abs(grid.row(end) - grid.row(from)), Math.abs(grid.col(end) - grid.col(from)));
+            return moveWeight + cellWeight * cells;
+        }
+
+        // Total cost of a plan from the state's ball position
+        int planCost(Grid grid, int start, List<Integer> plan) {
+            int cell = start, total = 0;
+            for (int d : plan) {
+                int end = Grid.end(grid.slide(cell, d));
+                total += cost(grid, cell, end);
+                cell = end;
+            }
+            return total;
+        }
+
+        List<Integer> solve(GameState state, Quadrant target, Consumer<SolverMetrics> sink) {
+            String name = target == Quadrant.ALL ? "dijkstra full board" : "dijkstra quadrant " + target;
+            SolverMetrics metrics = SolverMetrics.start(name, state.grid, targetGems(state, target), SolverMetrics.HASH);
+            SolverModel model = new SolverModel(state, target);
+            metrics.maskBits = model.gemCount;
+            if (model.unreachable) return finishSolve(sink, metrics, null);
+            if (model.gemCount == 0) {
+                metrics.planCost = 0;
+                return finishSolve(sink, metrics, Collections.emptyList());
+            }
+
+            Grid grid = model.grid;
+            int size = grid.size, dirs = DIRS.length;
+            int[] ends = new int[size * dirs], costs = new int[size * dirs];
+            int maxCost = 1;
+            for (int e = 0; e < size * dirs; e++) {
+                ends[e] = model.end(e / dirs, e % dirs);
+                if (ends[e] < 0) continue;
+                costs[e] = cost(grid, e / dirs, ends[e]);
+                maxCost = Math.max(maxCost, costs[e]);
+            }
+
+            // Every edge costs at least 1 and at most maxCost, so maxCost + 1 buckets never collide
+            buckets = new int[maxCost + 1][16];
+            fill = new int[maxCost + 1];
+            keys = new long[1 << 12];
+            dist = new int[keys.length];
+            parent = new int[keys.length];
+            moveDir = new byte[keys.length];
+            done = new boolean[keys.length];
+            states = 0;
+            LongIntMap index = new LongIntMap(keys.length);
+
+            long startKey = model.start + (long) model.startMask * size;
+            index.put(startKey, add(startKey, 0, -1, -1));
+            push(0, 0);
+            int queued = 1;
+
+            for (int d = 0; queued > 0; d++) {
+                int b = d % buckets.length;
+                for (int k = 0; k < fill[b]; k++) {
+                    int s = buckets[b][k];
+                    queued--;
+                    if (done[s] || dist[s] != d) continue;   // superseded by a cheaper entry
+                    done[s] = true;
+                    metrics.expand();
+                    int cell = (int) (keys[s] % size), mask = (int) (keys[s] / size);
+                    if (mask == model.fullMask) {
+                        List<Integer> plan = new ArrayList<>();
+                        for (int i = s; parent[i] != -1; i = parent[i]) plan.add((int) moveDir[i]);
+                        Collections.reverse(plan);
+                        metrics.planCost = d;
+                        return finishSolve(sink, metrics, plan);
+                    }
+                    for (int dir = 0; dir < dirs; dir++) {
+                        int e = cell * dirs + dir;
+                        if (ends[e] < 0) continue;
+                        long key = ends[e] + (long) (mask | model.rayGems[e]) * size;
+                        int nd = d + costs[e];
+                        metrics.statesGenerated++;
+                        int t = index.get(key);
+                        if (t < 0) {
+                            t = add(key, nd, s, dir);
+                            index.put(key, t);
+                        } else if (!done[t] && nd < dist[t]) {
+                            dist[t] = nd;
+                            parent[t] = s;
+                            moveDir[t] = (byte) dir;
+                        } else {
+                            metrics.duplicateHits++;
+                            continue;
+                        }
+                        push(t, nd);
+                        queued++;
+                    }
+                    metrics.frontier(queued);
+                }
+                fill[b] = 0;
+            }
+            return finishSolve(sink, metrics, null);
+        }
+
+        private int add(long key, int d, int from, int dir) {
+            if (states == keys.length) {
+                int n = states * 2;
+                keys = Arrays.copyOf(keys, n);
+                dist = Arrays.copyOf(dist, n);
+                parent = Arrays.copyOf(parent, n);
+                moveDir = Arrays.copyOf(moveDir, n);
+                done = Arrays.copyOf(done, n);
+            }
+            keys[states] = key;
+            dist[states] = d;
+            parent[states] = from;
+            moveDir[states] = (byte) dir;
+            return states++;
+        }
+
+        private void push(int s, int d) {
+            int b = d % buckets.length;
+            if (fill[b] == buckets[b].length) buckets[b] = Arrays.copyOf(buckets[b], fill[b] * 2);
+            buckets[b][fill[b]++] = s;
+        }
+    }
+
+    // ===== Solver instrumentation: one metrics record per solver run =====
+    static final class SolverMetrics {
+        static final String DENSE = "dense", HASH = "hash", TABLE = "table";
+
+        final String solver;
+        final int gems;
+        final int rows, cols;           // board the solve ran on
+        int maskBits = -1;              // bits per state mask after gem clustering, -1 when not applicable
+        final long startedAt;           // epoch millis
+        String storage;                 // visited-set layout that ran: dense array, hash fallback or IDA* table
+        long statesGenerated, statesExpanded, duplicateHits;
+        int peakFrontier;
+        long bytesAllocated = -1;       // on the solving thread; -1 when the JVM cannot measure it
+        long elapsedNanos;
+        int planLength = -1;            // -1 when no plan was found
+        long planCost = -1;             // weighted cost of the plan, -1 unless a weighted solver ran
+        private final long startNanos, startBytes;
+        private final SolveEvent event = new SolveEvent();
+
+        private SolverMetrics(String solver, Grid grid, int gems, String storage) {
+            this.solver = solver;
+            this.gems = gems;
+            this.rows = grid.rows;
+            this.cols = grid.cols;
+            this.storage = storage;
+            this.startedAt = System.currentTimeMillis();
+            this.startBytes = threadAllocatedBytes();
+            this.startNanos = System.nanoTime();
+            event.begin();
+        }
+
+        static SolverMetrics start(String solver, Grid grid, int gems, String storage) {
+            return new SolverMetrics(solver, grid, gems, storage);
+        }
+
+        void frontier(int size) { if (size > peakFrontier) peakFrontier = size; }
+
+        // One more state expanded; every 4096 the solve gives up if its thread was interrupted
+        void expand() {
+            if ((++statesExpanded & 0xFFF) == 0 && Thread.currentThread().isInterrupted())
+                throw new CancellationException(solver + " interrupted");
+        }
+
+        void finish(List<Integer> plan) {
+            elapsedNanos = System.nanoTime() - startNanos;
+            long bytes = threadAllocatedBytes();
+            if (bytes >= 0 && startBytes >= 0) bytesAllocated = bytes - startBytes;
+            planLength = plan == null ? -1 : plan.size();
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.solver = solver;
+                event.gems = gems;
+                event.rows = rows;
+                event.cols = cols;
+                event.storage = storage;
+                event.statesExpanded = statesExpanded;
+                event.peakFrontier = peakFrontier;
+                event.planLength = planLength;
+                event.commit();
+            }
+        }
+
+        String summary() {
+            String mem = bytesAllocated < 0 ? "n/a" : String.format("%.1f MB", bytesAllocated / (1024.0 * 1024.0));
+            return String.format("Solve: %d expanded, peak %d, %d ms, %s, %s", statesExpanded, peakFrontier,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), mem, storage);
+        }
+
+        String toJson() {
+            return String.format("{\"solver\":\"%s\",\"startedAt\":%d,\"gems\":%d,\"maskBits\":%d,\"storage\":\"%s\","
+                    + "\"statesGenerated\":%d,\"statesExpanded\":%d,\"duplicateHits\":%d,\"peakFrontier\":%d,"
+                    + "\"bytesAllocated\":%d,\"elapsedNanos\":%d,\"planLength\":%d,\"planCost\":%d}",
+                    solver, startedAt, gems, maskBits, storage, statesGenerated, statesExpanded, duplicateHits,
+                    peakFrontier, bytesAllocated, elapsedNanos, planLength, planCost);
+        }
+
+        static String toJson(List<SolverMetrics> runs) {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < runs.size(); i++) {
+                if (i > 0) sb.append(",\n ");
+                sb.append(runs.get(i).toJson());
+            }
+            return sb.append("]\n").toString();
+        }
+
+        private static long threadAllocatedBytes() {
+            java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+                if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                    return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+            return -1;
+        }
+    }
+
     private static class SlideResult {
         final int r, c, mask;
         final boolean died;
@@ -1226,31 +3370,278 @@ import javax.swing.*;
         }
     }
 
-    private static SlideResult slideForSolver(int r, int c, Vec dir, Grid grid, int[][] gemIndex, int mask) {
-        int rows = grid.rows, cols = grid.cols;
-        int cr = r, cc = c;
-        int curMask = mask;
-        boolean moved = false;
+    private static SlideResult slideForSolver(int r, int c, int dirIdx, Grid grid, int[] rayGems, int mask) {
+        int from = grid.index(r, c);
+        int slide = grid.slide(from, dirIdx);
+        int end = Grid.end(slide);
+        if (Grid.hitsMine(slide)) {
+            return new SlideResult(grid.row(end), grid.col(end), mask, true, true);
+        }
+        return new SlideResult(grid.row(end), grid.col(end), mask | rayGems[from * DIRS.length + dirIdx], false, end != from);
+    }
 
-        while (true) {
-            int nr = cr + dir.r;
-            int nc = cc + dir.c;
-            Vec nxt = new Vec(nr, nc);
-            if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) break;
-            if (grid.isWall(nxt)) break;
-            moved = true;
-            cr = nr;
-            cc = nc;
+    // One mask bit per group of gems that are always collected together. A gem is dropped when a kept gem
+    // is only ever crossed by slides that also cross it: equal slide sets form an equivalence class, a
+    // smaller set is a dependency (collecting that gem collects this one too). Only slides from cells the
+    // ball can reach count; a gem under the ball counts as collected already. Renumbers gemIndex in place
+    // and returns the number of bits left, or -1 when some gem no allowed slide crosses makes the target
+    // unsolvable (its empty slide set would otherwise count as a subset of every other gem's).
+    private static int clusterGems(Grid grid, int[][] gemIndex, long[] scope, int startCell) {
+        int size = grid.size, dirs = DIRS.length, words = (size * dirs + 63) >>> 6;
+        int[] gemAt = new int[size];
+        Arrays.fill(gemAt, -1);
+        int n = 0;
+        for (int cell = 0; cell < size; cell++) {
+            int r = grid.row(cell), c = grid.col(cell);
+            if (gemIndex[r][c] < 0) continue;
+            if (cell == startCell) { gemIndex[r][c] = -1; continue; }
+            gemAt[cell] = n++;
+        }
+        int[] cells = new int[n];
+        for (int cell = 0; cell < size; cell++) if (gemAt[cell] >= 0) cells[gemAt[cell]] = cell;
+
+        // Cells the ball can stop on from where it is
+        boolean[] reached = new boolean[size];
+        int[] queue = new int[size];
+        int qh = 0, qt = 0;
+        reached[startCell] = true;
+        queue[qt++] = startCell;
+        while (qh < qt) {
+            int v = queue[qh++];
+            for (int d = 0; d < dirs; d++) {
+                int slide = grid.slide(v, d), end = Grid.end(slide);
+                if (Grid.hitsMine(slide) || reached[end] || (scope != null && !Bits.get(scope, end))) continue;
+                reached[end] = true;
+                queue[qt++] = end;
+            }
+        }
+
+        // Slides the solvers can actually take that cross each gem
+        long[][] crossing = new long[n][words];
+        for (int e = 0; e < size * dirs; e++) {
+            if (!reached[e / dirs]) continue;
+            int slide = grid.slide(e / dirs, e % dirs), end = Grid.end(slide);
+            if (end == e / dirs || Grid.hitsMine(slide) || (scope != null && !Bits.get(scope, end))) continue;
+            long[] ray = grid.ray(e / dirs, e % dirs);
+            for (int i = Bits.next(ray, 0); i >= 0; i = Bits.next(ray, i + 1)) {
+                if (gemAt[i] >= 0) crossing[gemAt[i]][e >>> 6] |= 1L << e;
+            }
+        }
+
+        // Smallest slide sets first, so a gem's possible dominators are decided before it
+        int[] order = new int[n], weight = new int[n];
+        for (int g = 0; g < n; g++) {
+            for (long w : crossing[g]) weight[g] += Long.bitCount(w);
+            if (weight[g] == 0) return -1;
+            int k = g;
+            while (k > 0 && weight[order[k - 1]] > weight[g]) { order[k] = order[k - 1]; k--; }
+            order[k] = g;
+        }
+        int[] kept = new int[n];
+        int bits = 0;
+        for (int g : order) {
+            boolean covered = false;
+            for (int k = 0; k < bits && !covered; k++) covered = Bits.subset(crossing[kept[k]], crossing[g]);
+            if (!covered) kept[bits++] = g;
+        }
+
+        for (int g = 0; g < n; g++) gemIndex[grid.row(cells[g])][grid.col(cells[g])] = -1;
+        for (int k = 0; k < bits; k++) gemIndex[grid.row(cells[kept[k]])][grid.col(cells[kept[k]])] = k;
+        return bits;
+    }
+
+    // Solver-local gem bits picked up by every slide, gathered once from the ray bitboards
+    private static int[] rayGemMasks(Grid grid, int[][] gemIndex, int gemCount) {
+        long[] gemCells = Bits.create(grid.size);
+        for (int r = 0; r < grid.rows; r++)
+            for (int c = 0; c < grid.cols; c++)
+                if (gemIndex[r][c] >= 0 && gemIndex[r][c] < gemCount) Bits.set(gemCells, grid.index(r, c));
+
+        int[] out = new int[grid.size * DIRS.length];
+        for (int cell = 0; cell < grid.size; cell++) {
+            for (int d = 0; d < DIRS.length; d++) {
+                if (Grid.end(grid.slide(cell, d)) == cell) continue;
+                long[] ray = grid.ray(cell, d);
+                if (!Bits.intersects(ray, gemCells)) continue;
+                int m = 0;
+                for (int i = Bits.next(ray, 0); i >= 0; i = Bits.next(ray, i + 1)) {
+                    if (Bits.get(gemCells, i)) m |= 1 << gemIndex[grid.row(i)][grid.col(i)];
+                }
+                out[cell * DIRS.length + d] = m;
+            }
+        }
+        return out;
+    }
+
+    // ===== Retrograde oracle: moves to collect every gem from any (cell, collected set) =====
+    // Same slide semantics as slideForSolver (landing on a mine is never allowed); a scoped table only
+    // allows slides landing in the scope and only counts its gems, like quadrant play. Collected sets only
+    // grow, so layers are filled from the full set down; within a layer slides that pick up nothing
+    // are relaxed backwards from the already known exits, so no forward search is ever needed.
+    static final class Oracle {
+        static final int INF = 255;
+        static final long MAX_STATES = 1L << 25;   // one byte each
+
+        final Grid grid;
+        final int gemCount;
+        private final int[] gemCells;   // bit -> cell
+        private final int[] rayMask;    // gems picked up per (cell, direction), -1 when the slide is not allowed
+        private final byte[] dist;      // [mask * size + cell], INF when the remaining gems cannot be collected
+
+        private Oracle(Grid grid, int[] gemCells, int[] rayMask, byte[] dist) {
+            this.grid = grid;
+            this.gemCells = gemCells;
+            this.gemCount = gemCells.length;
+            this.rayMask = rayMask;
+            this.dist = dist;
+        }
+
+        // Null when the table would be too large for the level's gem count
+        static Oracle build(Grid grid, long[] gems, long[] scope) {
+            int size = grid.size, dirs = DIRS.length;
+            if (scope != null) gems = Bits.and(gems, scope);
+            int gemCount = Bits.count(gems);
+            if (gemCount > 30 || ((long) size << gemCount) > MAX_STATES) return null;
+
+            int[] gemCells = new int[gemCount];
+            int[] gemBit = new int[size];
+            Arrays.fill(gemBit, -1);
+            int n = 0;
+            for (int i = Bits.next(gems, 0); i >= 0; i = Bits.next(gems, i + 1)) { gemBit[i] = n; gemCells[n++] = i; }
+
+            int[] rayMask = new int[size * dirs];
+            int[] revStart = new int[size + 1];
+            for (int cell = 0; cell < size; cell++) {
+                for (int d = 0; d < dirs; d++) {
+                    int slide = grid.slide(cell, d), end = Grid.end(slide);
+                    int e = cell * dirs + d;
+                    if (end == cell || Grid.hitsMine(slide) || (scope != null && !Bits.get(scope, end))) {
+                        rayMask[e] = -1;
+                        continue;
+                    }
+                    long[] ray = grid.ray(cell, d);
+                    int m = 0;
+                    for (int i = Bits.next(ray, 0); i >= 0; i = Bits.next(ray, i + 1)) if (gemBit[i] >= 0) m |= 1 << gemBit[i];
+                    rayMask[e] = m;
+                    revStart[end + 1]++;
+                }
+            }
+            // Allowed slides grouped by landing cell
+            for (int i = 0; i < size; i++) revStart[i + 1] += revStart[i];
+            int[] revEdge = new int[revStart[size]];
+            int[] fill = Arrays.copyOf(revStart, size);
+            for (int e = 0; e < size * dirs; e++) {
+                if (rayMask[e] >= 0) revEdge[fill[Grid.end(grid.slide(e / dirs, e % dirs))]++] = e;
+            }
+
+            int full = (1 << gemCount) - 1;
+            byte[] dist = new byte[size << gemCount];
+            int[] d = new int[size], order = new int[size], queue = new int[size], bucket = new int[INF + 2];
+            boolean[] done = new boolean[size];
+            for (int mask = full - 1; mask >= 0; mask--) {
+                if (Thread.currentThread().isInterrupted()) return null;
+                // Best slide that picks up a new gem, read from the finished layers above
+                Arrays.fill(bucket, 0);
+                for (int cell = 0; cell < size; cell++) {
+                    int best = INF;
+                    for (int k = 0; k < dirs; k++) {
+                        int m = rayMask[cell * dirs + k];
+                        if (m < 0 || (m | mask) == mask) continue;
+                        int v = dist[(mask | m) * size + Grid.end(grid.slide(cell, k))] & 0xFF;
+                        if (v + 1 < best) best = v + 1;
+                    }
+                    d[cell] = best;
+                    done[cell] = false;
+                    bucket[best + 1]++;
+                }
+                // Seeds by distance, merged with a FIFO of backward relaxations
+                for (int i = 0; i <= INF; i++) bucket[i + 1] += bucket[i];
+                for (int cell = 0; cell < size; cell++) order[bucket[d[cell]]++] = cell;
+                int si = 0, qh = 0, qt = 0;
+                while (true) {
+                    int v;
+                    if (qh < qt && (si == size || d[queue[qh]] <= d[order[si]])) v = queue[qh++];
+                    else if (si < size) v = order[si++];
+                    else break;
+                    if (done[v] || d[v] >= INF) continue;
+                    done[v] = true;
+                    int nd = d[v] + 1;
+                    if (nd >= INF) continue;
+                    for (int j = revStart[v]; j < revStart[v + 1]; j++) {
+                        int e = revEdge[j], u = e / dirs;
+                        if (done[u] || (rayMask[e] | mask) != mask || nd >= d[u]) continue;
+                        d[u] = nd;
+                        queue[qt++] = u;   // pushed at most once: nd never decreases
+                    }
+                }
+                int base = mask * size;
+                for (int cell = 0; cell < size; cell++) dist[base + cell] = (byte) d[cell];
+            }
+            return new Oracle(grid, gemCells, rayMask, dist);
+        }
+
+        // Collected set for the remaining gems; gems that were not on the board at build time are ignored
+        int mask(long[] gems) {
+            int m = 0;
+            for (int b = 0; b < gemCount; b++) if (!Bits.get(gems, gemCells[b])) m |= 1 << b;
+            return m;
+        }
+
+        // Fewest slides to collect the remaining gems, or -1 when no mine-free run does it
+        int movesToFinish(int cell, long[] gems) {
+            int v = dist[mask(gems) * grid.size + cell] & 0xFF;
+            return v == INF ? -1 : v;
+        }
+
+        // An optimal slide from cell landing in scope, or -1 when none finishes the level
+        int bestMove(int cell, long[] gems, long[] scope) {
+            int mask = mask(gems);
+            int best = -1, bestDist = INF;
+            for (int k = 0; k < DIRS.length; k++) {
+                int m = rayMask[cell * DIRS.length + k];
+                if (m < 0) continue;
+                int end = Grid.end(grid.slide(cell, k));
+                if (scope != null && !Bits.get(scope, end)) continue;
+                int v = dist[(mask | m) * grid.size + end] & 0xFF;
+                if (v < bestDist) { bestDist = v; best = k; }
+            }
+            return best;
+        }
+    }
 
-            Cell cell = grid.get(nxt);
-            if (cell == Cell.MINE) {
-                return new SlideResult(cr, cc, curMask, true, true);
+    // ===== Move preview: gems each slide would pick up, cached per ball position =====
+    // Landing cells and mines come straight from the slide table; only the gem counts depend on the
+    // game, so a position's entries stay valid until the gem set changes.
+    static final class MovePreview {
+        final Grid grid;
+        private final long[] gemsSeen;
+        private final int[] gained;      // gems picked up, per (cell, direction)
+        private final int[] stamp;       // generation each cell's entries were filled in
+        private int generation = 1;
+
+        MovePreview(Grid grid) {
+            this.grid = grid;
+            this.gemsSeen = Bits.create(grid.size);
+            this.gained = new int[grid.size * DIRS.length];
+            this.stamp = new int[grid.size];
+        }
+
+        // Drops every cached entry when the gems differ from the ones the cache was filled with
+        void sync(long[] gems) {
+            if (Arrays.equals(gems, gemsSeen)) return;
+            System.arraycopy(gems, 0, gemsSeen, 0, gems.length);
+            generation++;
+        }
+
+        int gained(int cell, int dir) {
+            if (stamp[cell] != generation) {
+                for (int d = 0; d < DIRS.length; d++) {
+                    gained[cell * DIRS.length + d] = Bits.countAnd(gemsSeen, grid.ray(cell, d));
+                }
+                stamp[cell] = generation;
             }
-            int gi = gemIndex[cr][cc];
-            if (gi != -1) curMask |= (1 << gi);
-            if (cell == Cell.STOP) break;
+            return gained[cell * DIRS.length + dir];
         }
-        return new SlideResult(cr, cc, curMask, false, moved);
     }
 
     // ===== Board Rendering =====
@@ -1261,15 +3652,50 @@ import javax.swing.*;
         int originX = 16;
         int originY = 16;
 
+        boolean showPreview = false;
+        private MovePreview preview;
+        private int hoverR = -1, hoverC = -1;   // board cell under the mouse, -1 when outside
+        private int hintCell = -1, hintGems = -1, hintDir = -1;   // shown while the position is unchanged
+
         BoardPanel(GameState s) {
             this.state = s;
             setBackground(Color.WHITE);
-            addMouseListener(new MouseAdapter() { @Override public void mousePressed(MouseEvent e) { handleClick(e.getX(), e.getY()); }});
+            MouseAdapter mouse = new MouseAdapter() {
+                @Override public void mousePressed(MouseEvent e) { handleClick(e.getX(), e.getY()); }
+                @Override public void mouseMoved(MouseEvent e) { handleHover(e.getX(), e.getY()); }
+                @Override public void mouseExited(MouseEvent e) { handleHover(-1, -1); }
+            };
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+        }
+
+        // A new level drops the hint; later versions of the same game keep it until the position changes
+        void setState(GameState s) {
+            if (s.grid != state.grid) hintCell = -1;
+            this.state = s;
         }
 
-        void setState(GameState s) { this.state = s; }
+        void showHint(int cell, int gemsLeft, int dir) {
+            hintCell = cell;
+            hintGems = gemsLeft;
+            hintDir = dir;
+        }
 
         @Override protected void paintComponent(Graphics g) {
+            PaintEvent event = new PaintEvent();
+            event.begin();
+            paintBoard(g);
+            event.end();
+            if (event.shouldCommit()) {
+                event.rows = state.grid.rows;
+                event.cols = state.grid.cols;
+                event.width = getWidth();
+                event.height = getHeight();
+                event.commit();
+            }
+        }
+
+        private void paintBoard(Graphics g) {
             super.paintComponent(g);
             Graphics2D g2 = (Graphics2D) g;
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -1326,7 +3752,7 @@ import javax.swing.*;
                     g2.setColor(new Color(220, 220, 220));
                     g2.drawRect(x, y, cellSize, cellSize);
 
-                    Cell cell = state.grid.cells[r][c];
+                    Cell cell = state.grid.cell(r, c);
                     switch (cell) {
                         case WALL:
                             g2.setColor(new Color(80, 80, 80));
@@ -1344,11 +3770,12 @@ import javax.swing.*;
                         default:
                             break;
                     }
-                    if (state.gemPresent[r][c]) drawGem(g2, x, y);
+                    if (state.hasGem(r, c)) drawGem(g2, x, y);
                 }
             }
 
-            Inertia outer = (Inertia) SwingUtilities.getWindowAncestor(this);
+            Window window = SwingUtilities.getWindowAncestor(this);
+            Inertia outer = window instanceof Inertia ? (Inertia) window : null;   // null inside the level editor
             if (outer != null && outer.showExplosion && outer.explosionCenter != null) {
                 Vec e = outer.explosionCenter;
                 int ex = originX + e.c * cellSize;
@@ -1356,10 +3783,88 @@ import javax.swing.*;
                 drawExplosion(g2, ex, ey);
             }
 
+            if (showPreview && (outer == null || outer.turn == Turn.HUMAN && !outer.gameOver)) drawPreview(g2);
+            if (hintCell == state.grid.index(state.ball) && hintGems == state.remainingGems()) drawHint(g2);
+
             drawSharedBall(g2, state.ball, outer == null ? new Color(30, 180, 90) : outer.lastMoverFill,
                            outer == null ? new Color(10, 120, 60) : outer.lastMoverStroke);
         }
 
+        // Landing cell of every direction: green when legal, grey outside the quadrant, red onto a mine
+        private void drawPreview(Graphics2D g2) {
+            Grid grid = state.grid;
+            if (preview == null || preview.grid != grid) preview = new MovePreview(grid);
+            preview.sync(state.gems);
+
+            int from = grid.index(state.ball);
+            int hover = hoverDir();
+            int half = cellSize / 2;
+            int bx = originX + state.ball.c * cellSize + half, by = originY + state.ball.r * cellSize + half;
+            Composite old = g2.getComposite();
+            Font oldFont = g2.getFont();
+            g2.setFont(oldFont.deriveFont(Font.BOLD, cellSize / 3f));
+            for (int d = 0; d < DIRS.length; d++) {
+                int slide = grid.slide(from, d), end = Grid.end(slide);
+                if (end == from) continue;
+                boolean mine = Grid.hitsMine(slide);
+                boolean legal = state.currentQuadrant == Quadrant.ALL
+                        || Bits.get(grid.quadrants[state.currentQuadrant.ordinal()], end);
+                Color color = mine ? new Color(220, 40, 40) : legal ? new Color(40, 170, 80) : new Color(150, 150, 150);
+                int x = originX + grid.col(end) * cellSize, y = originY + grid.row(end) * cellSize;
+
+                g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, d == hover ? 0.8f : 0.35f));
+                g2.setColor(color);
+                g2.setStroke(new BasicStroke(d == hover ? 3f : 1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND,
+                                             0, new float[]{4, 4}, 0));
+                g2.drawLine(bx, by, x + half, y + half);
+                g2.setStroke(new BasicStroke(d == hover ? 4f : 2f));
+                g2.drawRoundRect(x + 3, y + 3, cellSize - 6, cellSize - 6, 10, 10);
+
+                int gained = preview.gained(from, d);
+                String label = mine ? "X" : gained > 0 ? "+" + gained : null;
+                if (label != null) {
+                    g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, d == hover ? 1f : 0.7f));
+                    g2.drawString(label, x + 4, y + cellSize - 5);
+                }
+            }
+            g2.setComposite(old);
+            g2.setFont(oldFont);
+        }
+
+        private void drawHint(Graphics2D g2) {
+            int end = Grid.end(state.grid.slide(hintCell, hintDir));
+            int half = cellSize / 2;
+            int x = originX + state.grid.col(end) * cellSize, y = originY + state.grid.row(end) * cellSize;
+            g2.setColor(new Color(230, 170, 0));
+            g2.setStroke(new BasicStroke(3f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2.drawLine(originX + state.ball.c * cellSize + half, originY + state.ball.r * cellSize + half, x + half, y + half);
+            g2.setStroke(new BasicStroke(4f));
+            g2.drawRoundRect(x + 2, y + 2, cellSize - 4, cellSize - 4, 12, 12);
+        }
+
+        // Direction from the ball towards the hovered cell, as in handleClick; -1 when there is none
+        private int hoverDir() {
+            if (hoverR < 0) return -1;
+            int dr = Integer.compare(hoverR, state.ball.r), dc = Integer.compare(hoverC, state.ball.c);
+            if (dr == 0 && dc == 0) return -1;
+            for (int d = 0; d < DIRS.length; d++) if (DIRS[d].r == dr && DIRS[d].c == dc) return d;
+            return -1;
+        }
+
+        // Repaints only when the hovered cell changes, so plain mouse motion stays free
+        private void handleHover(int mx, int my) {
+            int r = -1, c = -1;
+            if (mx >= originX && my >= originY) {
+                r = (my - originY) / cellSize;
+                c = (mx - originX) / cellSize;
+                if (r >= state.grid.rows || c >= state.grid.cols) r = c = -1;
+            }
+            if (r == hoverR && c == hoverC) return;
+            hoverR = r;
+            hoverC = c;
+            if (showPreview) repaint();
+        }
+
         private void drawSharedBall(Graphics2D g2, Vec pos, Color fill, Color stroke) {
             int px = originX + pos.c * cellSize + cellSize / 2;
             int py = originY + pos.r * cellSize + cellSize / 2;
@@ -1464,9 +3969,8 @@ import javax.swing.*;
             if (r < 0 || c < 0 || r >= state.grid.rows || c >= state.grid.cols) return;
             int dr = Integer.compare(r, state.ball.r);
             int dc = Integer.compare(c, state.ball.c);
-            Vec dir = new Vec(dr, dc);
             if (dr == 0 && dc == 0) return;
-            outer.handleHumanTurn(dir);
+            outer.handleHumanTurn(DIRS[dirIndex(dr, dc)]);
         }
 
         @Override public Dimension getPreferredSize() {
@@ -1475,15 +3979,500 @@ import javax.swing.*;
         }
     }
 
+    // ===== Level editor: paints the Level character format with live analysis =====
+    // Each edit swaps in Grid.with(), which recomputes only the slides that can reach the changed
+    // cell. Counts and balance are re-derived from that grid on the EDT. Solvability and the optimal
+    // move count need solver runs, so they start in the background once painting pauses and give up
+    // after a fixed budget.
+    static final class LevelEditor extends JDialog {
+        private static final long serialVersionUID = 1L;
+        static final char[] TILES = {' ', '#', 'O', 'G', '*', 'B', 'S'};
+        static final String[] TILE_NAMES = {"Empty", "Wall", "Stop", "Gem", "Mine", "Block", "Start"};
+        static final int MAX_SIDE = 60;
+        static final int SETTLE_MS = 150;          // quiet time after the last edit before the solvers run
+        static final int SOLVE_BUDGET_MS = 1000;   // the solvers are stopped past this
+
+        private final Inertia owner;
+        private final BoardPanel board;
+        private final JLabel analysis = new JLabel(" ");
+        private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "inertia-editor");
+            t.setDaemon(true);
+            return t;
+        });
+
+        private char[][] map;
+        private Grid grid;
+        private long[] gems;
+        private int start;              // always set: the start can be moved but not erased
+        private char brush = '#';
+        private int revision = 0;       // bumped per edit, so stale background results are dropped
+        private String summary = "";
+        private String checked = "";    // the running job's Solve button verdict, once it is known
+        private long countNanos;        // EDT time the counts in summary took, part of the reported figure
+        private Future<?> solveJob = null;
+        private final javax.swing.Timer settle = new javax.swing.Timer(SETTLE_MS, e -> startSolves());
+        private final javax.swing.Timer budget = new javax.swing.Timer(SOLVE_BUDGET_MS, e -> overBudget());
+
+        LevelEditor(Inertia owner, Level level) {
+            super(owner, "Level editor", false);
+            this.owner = owner;
+            setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+            addWindowListener(new WindowAdapter() {
+                @Override public void windowClosed(WindowEvent e) {
+                    settle.stop();
+                    budget.stop();
+                    worker.shutdownNow();
+                }
+            });
+            settle.setRepeats(false);
+            budget.setRepeats(false);
+
+            load(level.rows);
+            board = new BoardPanel(view());
+            MouseAdapter paint = new MouseAdapter() {
+                @Override public void mousePressed(MouseEvent e) { paintAt(e.getX(), e.getY()); }
+                @Override public void mouseDragged(MouseEvent e) { paintAt(e.getX(), e.getY()); }
+            };
+            board.addMouseListener(paint);
+            board.addMouseMotionListener(paint);
+
+            setLayout(new BorderLayout());
+            add(palette(), BorderLayout.NORTH);
+            add(new JScrollPane(board), BorderLayout.CENTER);
+            add(analysis, BorderLayout.SOUTH);
+            analyze();
+
+            setSize(720, 640);
+            setLocationRelativeTo(owner);
+        }
+
+        private JToolBar palette() {
+            JToolBar tb = new JToolBar();
+            tb.setFloatable(false);
+            ButtonGroup group = new ButtonGroup();
+            for (int t = 0; t < TILES.length; t++) {
+                char tile = TILES[t];
+                JToggleButton b = new JToggleButton(TILE_NAMES[t], tile == brush);
+                b.addActionListener(e -> brush = tile);
+                group.add(b);
+                tb.add(b);
+            }
+            tb.addSeparator();
+
+            JButton blank = new JButton("New");
+            blank.addActionListener(e -> newBlank());
+            JButton open = new JButton("Open");
+            open.addActionListener(e -> openFile());
+            JButton save = new JButton("Save");
+            save.addActionListener(e -> saveFile());
+            JButton play = new JButton("Play");
+            play.addActionListener(e -> {
+                owner.stopTimers();
+                owner.loadLevel(new Level(rows()));
+            });
+            tb.add(blank);
+            tb.add(open);
+            tb.add(save);
+            tb.add(play);
+            return tb;
+        }
+
+        private void load(String[] rows) {
+            map = new char[rows.length][];
+            for (int r = 0; r < rows.length; r++) map[r] = rows[r].toCharArray();
+            grid = Level.toGrid(map);
+            gems = Bits.create(grid.size);
+            start = -1;
+            for (int r = 0; r < grid.rows; r++) {
+                for (int c = 0; c < grid.cols; c++) {
+                    if (map[r][c] == 'G') Bits.set(gems, grid.index(r, c));
+                    else if (map[r][c] == 'S') start = grid.index(r, c);
+                }
+            }
+            revision++;
+        }
+
+        private String[] rows() {
+            String[] rows = new String[map.length];
+            for (int r = 0; r < map.length; r++) rows[r] = new String(map[r]);
+            return rows;
+        }
+
+        private GameState view() {
+            return new GameState(grid, grid.vec(start), gems, Bits.count(gems), new GameRecord(new String[0], -1));
+        }
+
+        private void paintAt(int mx, int my) {
+            if (mx < board.originX || my < board.originY) return;
+            int r = (my - board.originY) / board.cellSize, c = (mx - board.originX) / board.cellSize;
+            if (r >= grid.rows || c >= grid.cols) return;
+            int i = grid.index(r, c);
+            if (map[r][c] == brush || i == start) return;
+            // Moving the start leaves a stop behind, as 'S' is a stop with the ball on it
+            if (brush == 'S') set(start, 'O');
+            set(i, brush);
+            revision++;
+            board.setState(view());
+            analyze();
+            board.repaint();
+        }
+
+        private void set(int i, char ch) {
+            int r = grid.row(i), c = grid.col(i);
+            Cell type = Level.cellOf(ch);
+            if (Level.cellOf(map[r][c]) != type) grid = grid.with(i, type);
+            map[r][c] = ch;
+            if (ch == 'G') Bits.set(gems, i); else Bits.clear(gems, i);
+            if (ch == 'S') start = i;
+        }
+
+        private void analyze() {
+            long t0 = System.nanoTime();
+            int gemCount = Bits.count(gems);
+            // Same left/right and top/bottom half check the generator applies; per-quadrant counts follow below
+            boolean balanced = Level.balancedDistribution(map, 'G', gemCount)
+                    && Level.balancedDistribution(map, 'O', Bits.count(grid.stops))
+                    && Level.balancedDistribution(map, '*', Bits.count(grid.mines))
+                    && Level.balancedDistribution(map, 'B', Bits.count(grid.blocks));
+            StringBuilder sb = new StringBuilder();
+            String[] names = {"Top-Left", "Top-Right", "Bottom-Left", "Bottom-Right"};
+            for (int q = 0; q < 4; q++) {
+                long[] quad = grid.quadrants[q];
+                sb.append(q == 0 ? "" : "     ").append(names[q]).append(": ")
+                  .append(Bits.countAnd(gems, quad)).append(" gems, ")
+                  .append(Bits.countAnd(grid.stops, quad)).append(" stops, ")
+                  .append(Bits.countAnd(grid.mines, quad)).append(" mines, ")
+                  .append(Bits.countAnd(grid.blocks, quad)).append(" blocks");
+            }
+            summary = String.format("%d gems     %s<br>%s", gemCount, balanced ? "Halves balanced" : "Halves unbalanced", sb);
+            countNanos = System.nanoTime() - t0;
+
+            // Painting fires an edit per cell; the solvers only start once the edits settle
+            if (solveJob != null) solveJob.cancel(true);
+            budget.stop();
+            showAnalysis("Solving once edits settle...");
+            settle.restart();
+        }
+
+        // The Solve button's check and the optimal whole-board length, in the background and within budget
+        private void startSolves() {
+            if (solveJob != null) solveJob.cancel(true);
+            GameState st = view();
+            int rev = revision;
+            long before = countNanos;
+            checked = "";
+            showAnalysis("Solving...");
+            solveJob = worker.submit(() -> {
+                long t0 = System.nanoTime();
+                String verdict = "Too many gems to check", optimal = "too many gems";
+                try {
+                    int played = Level.solveButtonMoves(st);
+                    verdict = played < 0 ? "NOT solvable" : "Solvable (Solve button: " + played + " moves)";
+                } catch (IllegalArgumentException ex) {
+                    // keeps the note; a quadrant needs more mask bits than the solver handles
+                }
+                String known = verdict;
+                SwingUtilities.invokeLater(() -> { if (rev == revision) checked = known; });
+                try {
+                    List<Integer> plan = bfsSolveCurrentState(st, null, true);
+                    optimal = plan == null ? "no mine-free solution" : plan.size() + " moves (whole board)";
+                } catch (IllegalArgumentException ex) {
+                    // keeps the note, as above
+                }
+                String text = String.format("%s     Optimal: %s     analysis %.2f ms",
+                        verdict, optimal, (before + System.nanoTime() - t0) / 1e6);
+                SwingUtilities.invokeLater(() -> {
+                    if (rev != revision) return;
+                    budget.stop();
+                    showAnalysis(text);
+                });
+            });
+            budget.restart();
+        }
+
+        // The solvers stop at their next interrupt check; the figure still counts the time they took
+        private void overBudget() {
+            if (solveJob == null || solveJob.isDone()) return;
+            solveJob.cancel(true);
+            showAnalysis(String.format("%s     Optimal: over the %d ms budget     analysis %.2f ms",
+                    checked.isEmpty() ? "Solvability: over budget" : checked, SOLVE_BUDGET_MS,
+                    (countNanos + SOLVE_BUDGET_MS * 1_000_000L) / 1e6));
+        }
+
+        private void showAnalysis(String text) {
+            analysis.setText("<html>" + text + "     " + summary + "</html>");
+        }
+
+        private void newBlank() {
+            String size = JOptionPane.showInputDialog(this, "Rows x columns", map.length + "x" + map[0].length);
+            if (size == null) return;
+            int rows, cols;
+            try {
+                String[] parts = size.toLowerCase(Locale.ROOT).split("x");
+                rows = Integer.parseInt(parts[0].trim());
+                cols = Integer.parseInt(parts[1].trim());
+            } catch (RuntimeException ex) {
+                JOptionPane.showMessageDialog(this, "Enter a size like 10x12.", "Editor", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (rows < 2 || cols < 2 || rows > MAX_SIDE || cols > MAX_SIDE) {
+                JOptionPane.showMessageDialog(this, "Each side must be between 2 and " + MAX_SIDE + ".", "Editor",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            char[] blank = new char[cols];
+            Arrays.fill(blank, ' ');
+            String[] out = new String[rows];
+            for (int r = 0; r < rows; r++) out[r] = new String(blank);
+            char[] mid = blank.clone();
+            mid[cols / 2] = 'S';
+            out[rows / 2] = new String(mid);
+            reload(out);
+        }
+
+        private void openFile() {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            try {
+                List<String> lines = Files.readAllLines(chooser.getSelectedFile().toPath(), java.nio.charset.StandardCharsets.UTF_8);
+                while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) lines.remove(lines.size() - 1);
+                reload(Level.parse(lines, MAX_SIDE).rows);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Failed to open level: " + ex.getMessage(), "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        private void saveFile() {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("inertia-level.txt"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            try {
+                Files.write(chooser.getSelectedFile().toPath(), Arrays.asList(rows()), java.nio.charset.StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Failed to save level: " + ex.getMessage(), "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        private void reload(String[] rows) {
+            load(rows);
+            board.setState(view());
+            board.revalidate();
+            analyze();
+            board.repaint();
+        }
+    }
+
+    // ===== Flight Recorder events (near-zero cost unless a recording enables them) =====
+    @Name("inertia.Solve")
+    @Label("Solve")
+    @Category("Inertia")
+    @Description("One solver run")
+    static final class SolveEvent extends jdk.jfr.Event {
+        @Label("Solver") String solver;
+        @Label("Gems") int gems;
+        @Label("Rows") int rows;
+        @Label("Columns") int cols;
+        @Label("Storage") String storage;
+        @Label("States Expanded") long statesExpanded;
+        @Label("Peak Frontier") int peakFrontier;
+        @Label("Plan Length") int planLength;
+    }
+
+    @Name("inertia.GenerateLevel")
+    @Label("Generate Level")
+    @Category("Inertia")
+    static final class GenerateEvent extends jdk.jfr.Event {
+        @Label("Seed") long seed;
+        @Label("Rows") int rows;
+        @Label("Columns") int cols;
+        @Label("Difficulty") String difficulty;
+        @Label("Attempts") int attempts;
+        @Label("Solver Moves") int moves;
+        @Label("Success") boolean success;
+    }
+
+    @Name("inertia.AiMove")
+    @Label("Computer Move")
+    @Category("Inertia")
+    static final class AiMoveEvent extends jdk.jfr.Event {
+        @Label("Mode") String mode;
+        @Label("Searched") boolean searched;
+        @Label("Speculative") boolean speculative;
+        @Label("Direction") int direction = -1;
+        @Label("Gems Gained") int gemsGained;
+        @Label("Died") boolean died;
+        @Label("Board Cells") int boardCells;
+        @Label("Gems Left") int gemsLeft;
+    }
+
+    @Name("inertia.Paint")
+    @Label("Paint Board")
+    @Category("Inertia")
+    static final class PaintEvent extends jdk.jfr.Event {
+        @Label("Rows") int rows;
+        @Label("Columns") int cols;
+        @Label("Width") int width;
+        @Label("Height") int height;
+    }
+
+    // ===== Solvability: can one run collect every gem without touching a mine? =====
+    // Gems never block the ball, so the slide graph is fixed. Inside a strongly connected component
+    // the ball can use every slide and still end anywhere, so only the path through the component
+    // DAG matters; each component keeps the maximal gem sets it can be entered with.
+    static final class Solvability {
+        private Solvability() {}
+
+        // Cells where the ball can stand once every gem is collected, landing only inside scope;
+        // empty when no run from any start cell collects them all
+        static long[] finishCells(Grid grid, long[] starts, long[] gems, long[] scope) {
+            int size = grid.size, dirs = DIRS.length;
+            int gemCount = Bits.count(gems);
+            if (gemCount > 64) throw new IllegalArgumentException("Solvability supports at most 64 gems, got " + gemCount);
+            long full = gemCount == 64 ? -1L : (1L << gemCount) - 1;
+
+            int[] gemBit = new int[size];
+            Arrays.fill(gemBit, -1);
+            int bit = 0;
+            for (int i = Bits.next(gems, 0); i >= 0; i = Bits.next(gems, i + 1)) gemBit[i] = bit++;
+
+            // Safe slides: the ball moves, does not end on a mine, and lands in scope
+            int[] to = new int[size * dirs];
+            long[] picked = new long[size * dirs];
+            long everything = 0;
+            for (int cell = 0; cell < size; cell++) {
+                for (int d = 0; d < dirs; d++) {
+                    int slide = grid.slide(cell, d), end = Grid.end(slide);
+                    int e = cell * dirs + d;
+                    to[e] = -1;
+                    if (end == cell || Grid.hitsMine(slide) || !Bits.get(scope, end)) continue;
+                    to[e] = end;
+                    long[] ray = grid.ray(cell, d);
+                    long m = 0;
+                    if (Bits.intersects(ray, gems)) {
+                        for (int i = Bits.next(ray, 0); i >= 0; i = Bits.next(ray, i + 1)) {
+                            if (gemBit[i] >= 0) m |= 1L << gemBit[i];
+                        }
+                    }
+                    picked[e] = m;
+                    everything |= m;
+                }
+            }
+            long[] none = Bits.create(size);
+            if ((everything | startGems(starts, gemBit)) != full) return none;
+
+            // Tarjan over cells reachable from the starts; components come out sinks first
+            int[] comp = new int[size], index = new int[size], low = new int[size];
+            Arrays.fill(index, -1);
+            int[] stack = new int[size], callCell = new int[size], callDir = new int[size];
+            boolean[] onStack = new boolean[size];
+            int sp = 0, next = 0, comps = 0;
+            for (int s = Bits.next(starts, 0); s >= 0; s = Bits.next(starts, s + 1)) {
+                if (index[s] >= 0) continue;
+                int depth = 0;
+                callCell[0] = s; callDir[0] = 0;
+                index[s] = low[s] = next++;
+                stack[sp++] = s; onStack[s] = true;
+                while (depth >= 0) {
+                    int v = callCell[depth];
+                    if (callDir[depth] < dirs) {
+                        int w = to[v * dirs + callDir[depth]++];
+                        if (w < 0) continue;
+                        if (index[w] < 0) {
+                            index[w] = low[w] = next++;
+                            stack[sp++] = w; onStack[w] = true;
+                            depth++;
+                            callCell[depth] = w; callDir[depth] = 0;
+                        } else if (onStack[w]) {
+                            low[v] = Math.min(low[v], index[w]);
+                        }
+                        continue;
+                    }
+                    if (low[v] == index[v]) {
+                        int w;
+                        do { w = stack[--sp]; onStack[w] = false; comp[w] = comps; } while (w != v);
+                        comps++;
+                    }
+                    depth--;
+                    if (depth >= 0) low[callCell[depth]] = Math.min(low[callCell[depth]], low[v]);
+                }
+            }
+
+            // Gems picked up by slides that stay inside each component
+            long[] inside = new long[comps];
+            for (int cell = 0; cell < size; cell++) {
+                if (index[cell] < 0) continue;
+                for (int d = 0; d < dirs; d++) {
+                    int e = cell * dirs + d;
+                    if (to[e] >= 0 && comp[to[e]] == comp[cell]) inside[comp[cell]] |= picked[e];
+                }
+            }
+
+            long[][] masks = new long[comps][];
+            int[] counts = new int[comps];
+            for (int s = Bits.next(starts, 0); s >= 0; s = Bits.next(starts, s + 1)) {
+                long m = inside[comp[s]] | (gemBit[s] >= 0 ? 1L << gemBit[s] : 0);
+                addMask(masks, counts, comp[s], m);
+            }
+
+            // Sources first: push every kept set across each slide that leaves the component
+            boolean[] done = new boolean[comps];
+            for (int c = comps - 1; c >= 0; c--) {
+                for (int k = 0; k < counts[c]; k++) if (masks[c][k] == full) done[c] = true;
+                if (counts[c] == 0) continue;
+                for (int cell = 0; cell < size; cell++) {
+                    if (index[cell] < 0 || comp[cell] != c) continue;
+                    for (int d = 0; d < dirs; d++) {
+                        int e = cell * dirs + d, w = to[e];
+                        if (w < 0 || comp[w] == c) continue;
+                        for (int k = 0; k < counts[c]; k++) {
+                            addMask(masks, counts, comp[w], masks[c][k] | picked[e] | inside[comp[w]]);
+                        }
+                    }
+                }
+            }
+
+            for (int cell = 0; cell < size; cell++) {
+                if (index[cell] >= 0 && done[comp[cell]]) Bits.set(none, cell);
+            }
+            return none;
+        }
+
+        private static long startGems(long[] starts, int[] gemBit) {
+            long m = 0;
+            for (int s = Bits.next(starts, 0); s >= 0; s = Bits.next(starts, s + 1)) {
+                if (gemBit[s] >= 0) m |= 1L << gemBit[s];
+            }
+            return m;
+        }
+
+        // Keeps only gem sets not contained in another set of the same component
+        private static void addMask(long[][] masks, int[] counts, int c, long m) {
+            long[] list = masks[c];
+            int n = counts[c];
+            for (int k = 0; k < n; k++) if ((list[k] | m) == list[k]) return;
+            int kept = 0;
+            for (int k = 0; k < n; k++) if ((list[k] | m) != m) list[kept++] = list[k];
+            if (list == null) list = masks[c] = new long[4];
+            else if (kept == list.length) list = masks[c] = Arrays.copyOf(list, kept * 2);
+            list[kept++] = m;
+            counts[c] = kept;
+        }
+    }
+
     // ===== Level handling and generator =====
     static final class Level {
         final String[] rows;
-        Level(String[] rows) { this.rows = rows; }
+        final long seed;          // generator seed, -1 when the level did not come from the generator
+        Level(String[] rows) { this(rows, -1); }
+        Level(String[] rows, long seed) { this.rows = rows; this.seed = seed; }
 
         GameState toGameState() {
             int R = rows.length, C = rows[0].length();
             Cell[][] cells = new Cell[R][C];
-            boolean[][] gem = new boolean[R][C];
+            long[] gem = Bits.create(R * C);
             Vec start = null;
             int gems = 0;
             for (int r = 0; r < R; r++) {
@@ -1494,7 +4483,7 @@ import javax.swing.*;
                         case '#': cell = Cell.WALL; break;
                         case '*': cell = Cell.MINE; break;
                         case 'O': cell = Cell.STOP; break;
-                        case 'G': cell = Cell.EMPTY; gem[r][c] = true; gems++; break;
+                        case 'G': cell = Cell.EMPTY; Bits.set(gem, r * C + c); gems++; break;
                         case 'S':
                             cell = Cell.STOP;
                             start = new Vec(r, c);
@@ -1506,138 +4495,291 @@ import javax.swing.*;
                 }
             }
             if (start == null) throw new IllegalStateException("Level missing start 'S'");
-            return new GameState(new Grid(cells), start, gem, gems);
+            return new GameState(new Grid(cells), start, gem, gems, new GameRecord(rows, seed));
         }
 
-        private static final int MIN_DIFFICULT_STEPS = 10;
+        private static final int MAX_ATTEMPTS = 512;  // layouts boxed in or not cleared by the Solve button; bounds the loop
+        private static final int CANDIDATES = 8;      // finished layouts compared against the difficulty band
+        private static final int GEMS = 4, MINES = 4, BLOCKS = 4, STOPS = 17;   // per quadrant; stops for the board
 
         static Level generateRandomLevel() {
-            final int rows = 10, cols = 12;
-            final int GEMS = 16, STOPS = 17, MINES = 16, BLOCKS = 16;
-            final Random rand = new Random();
-
-            for (int attempt=0; attempt<10;attempt++) {
-                List<Vec> stopsPath = new ArrayList<>();
-                Vec cur = new Vec(rand.nextInt(rows), rand.nextInt(cols));
-                stopsPath.add(cur);
-                while (stopsPath.size() < STOPS) {
-                    Vec dir = DIRS[rand.nextInt(DIRS.length)];
-                    int steps = 1 + rand.nextInt(3);
-                    Vec nxt = cur;
-                    for (int i = 0; i < steps; i++) {
-                        Vec candidate = nxt.add(dir);
-                        if (candidate.r < 1 || candidate.r >= rows-1 || candidate.c < 1 || candidate.c >= cols-1) break;
-                        nxt = candidate;
-                    }
-                    if (!stopsPath.contains(nxt)) {
-                        stopsPath.add(nxt);
-                        cur = nxt;
-                    }
-                }
+            return generateRandomLevel(Difficulty.NORMAL);
+        }
 
-                char[][] grid = new char[rows][cols];
-                for (int r = 0; r < rows; r++) Arrays.fill(grid[r], ' ');
+        static Level generateRandomLevel(Difficulty difficulty) {
+            return generateRandomLevel(new Random().nextLong() & Long.MAX_VALUE, difficulty);
+        }
 
-                for (Vec v : stopsPath) grid[v.r][v.c] = 'O';
+        static Level generateRandomLevel(long seed) {
+            return generateRandomLevel(seed, Difficulty.NORMAL);
+        }
 
-                Vec start = stopsPath.get(rand.nextInt(stopsPath.size()));
-                grid[start.r][start.c] = 'S';
+        static Level generateRandomLevel(long seed, Difficulty difficulty) {
+            GenerateEvent event = new GenerateEvent();
+            event.begin();
+            event.seed = seed;
+            event.difficulty = difficulty.name();
+            try {
+                Level level = generateRandomLevel(seed, difficulty, event);
+                event.success = true;
+                return level;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) event.commit();
+            }
+        }
 
-                Set<Vec> used = new HashSet<>(stopsPath);
-                used.add(start);
-                int placedGems = 0;
-                for (Vec v : stopsPath) {
-                    if (placedGems >= GEMS) break;
-                    List<Vec> candidates = new ArrayList<>();
-                    for (Vec d : DIRS) {
-                        Vec a = new Vec(v.r + d.r, v.c + d.c);
-                        if (a.r >= 0 && a.r < rows && a.c >= 0 && a.c < cols && grid[a.r][a.c] == ' ' && !used.contains(a))
-                            candidates.add(a);
-                    }
-                    if (!candidates.isEmpty()) {
-                        Vec g = candidates.get(rand.nextInt(candidates.size()));
-                        grid[g.r][g.c] = 'G';
-                        used.add(g);
-                        placedGems++;
+        // Builds levels around a planned solution instead of sampling and rejecting: see Layout. A layout
+        // only becomes a candidate once the Solve button's own quadrant-by-quadrant play clears it; of a
+        // fixed number of candidates the first whose move count for that play lies in the difficulty's
+        // band wins, otherwise the closest one, so the cost per level is bounded.
+        private static Level generateRandomLevel(long seed, Difficulty difficulty, GenerateEvent event) {
+            final int rows = 10, cols = 12;
+            event.rows = rows;
+            event.cols = cols;
+            final Random rand = new Random(seed);
+
+            String[] best = null;
+            int bestMiss = Integer.MAX_VALUE, built = 0;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS && built < CANDIDATES; attempt++) {
+                event.attempts = attempt + 1;
+                char[][] grid = new Layout(rows, cols, difficulty, rand).build();
+                if (grid == null) continue;
+                String[] map = new String[rows];
+                for (int r = 0; r < rows; r++) map[r] = new String(grid[r]);
+                int moves = Engine.solveByQuadrant(new Level(map).toGameState());
+                if (moves < 0) continue;     // the planned walk exists, but the Solve button would get stuck
+                built++;
+                int miss = Math.max(difficulty.minMoves - moves, moves - difficulty.maxMoves);
+                if (miss < bestMiss) {
+                    best = map;
+                    bestMiss = miss;
+                    event.moves = moves;
+                }
+                if (miss <= 0) break;
+            }
+            if (best == null) throw new RuntimeException("Failed to generate a solvable level after " + MAX_ATTEMPTS + " attempts.");
+            return new Level(best, seed);
+        }
+
+        // One constructive attempt, cells packed as r * cols + c. The ball starts on a random stop and, for
+        // each quadrant in play order, slides in from the previous one and then makes difficulty.slides
+        // slides inside it, each landing on a new stop, an existing one or a board edge. The quadrant's gems
+        // go on cells those inner slides cross. Mines, blocks and the remaining stops only go on cells no
+        // planned slide touches, so every planned slide keeps its path and landing and the walk, run end to
+        // end, collects every gem. Counts are dealt out per quadrant, which
+        // keeps every half of the board balanced. Every loop is over a finite candidate list.
+        private static final class Layout {
+            private static final char FREE = ' ', CROSSED = '.';
+            final int rows, cols;
+            final Difficulty difficulty;
+            final Random rand;
+            final char[] cell;                  // FREE, CROSSED, 'O', 'S' or 'G'
+            final int[] free = new int[4];      // FREE cells per quadrant
+            final int[] stopsLeft = new int[4]; // stops each quadrant may still take
+            final int[] rests;                  // cells the ball rests on, in plan order
+            int restCount, ball;
+
+            Layout(int rows, int cols, Difficulty difficulty, Random rand) {
+                this.rows = rows;
+                this.cols = cols;
+                this.difficulty = difficulty;
+                this.rand = rand;
+                this.cell = new char[rows * cols];
+                this.rests = new int[4 * (difficulty.slides + GEMS + 1) + 1];
+                Arrays.fill(cell, FREE);
+                for (int i = 0; i < cell.length; i++) free[quadrant(i)]++;
+                Arrays.fill(stopsLeft, STOPS / 4);
+                stopsLeft[rand.nextInt(4)] += STOPS % 4;
+            }
+
+            int quadrant(int i) { return (i / cols < rows / 2 ? 0 : 2) + (i % cols < cols / 2 ? 0 : 1); }
+
+            boolean stop(int i) { return cell[i] == 'O' || cell[i] == 'S'; }
+
+            // The finished map, or null when the walk boxed itself in
+            char[][] build() {
+                ball = rand.nextInt(cell.length);
+                cell[ball] = 'S';
+                free[quadrant(ball)]--;
+                stopsLeft[quadrant(ball)]--;
+                rests[restCount++] = ball;
+
+                // A few extra inner slides are allowed when the planned ones crossed too few cells for the gems
+                int[] spots = new int[cell.length], slideOf = new int[cell.length];
+                for (int q = 0; q < 4; q++) {
+                    if (quadrant(ball) != q && slide(q, false, null, null, 0, 0) < 0) return null;
+                    int n = 0;
+                    for (int s = 0; s < difficulty.slides || (n < GEMS && s < difficulty.slides + GEMS); s++) {
+                        int m = slide(q, true, spots, slideOf, n, s);
+                        if (m < 0) break;
+                        n = m;
                     }
+                    if (n < GEMS) return null;
+                    placeGems(spots, slideOf, n);
                 }
-                while (placedGems < GEMS) {
-                    int r = rand.nextInt(rows), c = rand.nextInt(cols);
-                    if (grid[r][c] == ' ') { grid[r][c] = 'G'; placedGems++; }
+
+                for (int q = 0; q < 4; q++) {
+                    place(q, 'O', stopsLeft[q], 0);
+                    place(q, '*', MINES, difficulty.trapBias);
+                    place(q, 'B', BLOCKS, 0);
                 }
+                char[][] map = new char[rows][cols];
+                for (int i = 0; i < cell.length; i++) map[i / cols][i % cols] = cell[i] == CROSSED ? ' ' : cell[i];
+                return map;
+            }
 
-                int placedBlocks = 0;
-                while (placedBlocks < BLOCKS) {
-                    int r = rand.nextInt(rows), c = rand.nextInt(cols);
-                    Vec v = new Vec(r, c);
-                    if (grid[r][c] == ' ' && !stopsPath.contains(v)) {
-                        grid[r][c] = 'B';
-                        placedBlocks++;
+            // Picks one slide from the ball into quadrant q and commits it. Inner slides stay inside q, are
+            // weighted towards the ones crossing more new cells and append those cells to spots[n..]; the
+            // new spot count is returned, -1 when no slide fits.
+            private int slide(int q, boolean inner, int[] spots, int[] slideOf, int n, int index) {
+                int[] options = new int[DIRS.length * Math.max(rows, cols)];
+                int count = 0, total = 0;
+                for (int d = 0; d < DIRS.length; d++) {
+                    int r = ball / cols, c = ball % cols, taken = 0, fresh = 0;
+                    int[] used = new int[4];
+                    while (true) {
+                        r += DIRS[d].r;
+                        c += DIRS[d].c;
+                        if (r < 0 || r >= rows || c < 0 || c >= cols) break;
+                        int y = r * cols + c;
+                        if (inner && quadrant(y) != q) break;
+                        taken++;
+                        boolean edge = r + DIRS[d].r < 0 || r + DIRS[d].r >= rows || c + DIRS[d].c < 0 || c + DIRS[d].c >= cols;
+                        boolean lands = quadrant(y) == q && (stop(y) || edge
+                                || (cell[y] == FREE && stopsLeft[q] > 0));
+                        boolean newStop = cell[y] == FREE && !edge;
+                        if (lands && fits(used, y, newStop)) {
+                            int weight = inner ? 1 + fresh + (edge && spotFree(y) ? 1 : 0) : 1;
+                            options[count++] = weight << 24 | d << 16 | taken;
+                            total += weight;
+                        }
+                        if (stop(y)) break;
+                        if (cell[y] == FREE) used[quadrant(y)]++;
+                        if (spotFree(y)) fresh++;
                     }
                 }
+                if (count == 0) return -1;
 
-                int placedMines = 0;
-                while (placedMines < MINES) {
-                    int r = rand.nextInt(rows), c = rand.nextInt(cols);
-                    Vec v = new Vec(r, c);
-                    if (grid[r][c] == ' ' && !stopsPath.contains(v)) {
-                        grid[r][c] = '*';
-                        placedMines++;
+                int pick = 0;
+                for (int roll = rand.nextInt(total); ; pick++) {
+                    roll -= options[pick] >>> 24;
+                    if (roll < 0) break;
+                }
+                int d = options[pick] >>> 16 & 0xFF, length = options[pick] & 0xFFFF;
+                for (int k = 1; k <= length; k++) {
+                    int y = ball + k * (DIRS[d].r * cols + DIRS[d].c);
+                    if (k == length && cell[y] == FREE && !onEdge(y, d)) {
+                        cell[y] = 'O';
+                        free[quadrant(y)]--;
+                        stopsLeft[quadrant(y)]--;
+                        continue;
+                    }
+                    if (cell[y] == FREE) {
+                        cell[y] = CROSSED;
+                        free[quadrant(y)]--;
+                    }
+                    if (inner && spotFree(y) && !contains(spots, n, y)) {
+                        spots[n] = y;
+                        slideOf[n++] = index;
                     }
                 }
+                ball += length * (DIRS[d].r * cols + DIRS[d].c);
+                rests[restCount++] = ball;
+                return n;
+            }
 
-                if (!balancedDistribution(grid, 'G', GEMS)
-                        || !balancedDistribution(grid, 'O', STOPS)
-                        || !balancedDistribution(grid, '*', MINES)
-                        || !balancedDistribution(grid, 'B', BLOCKS)) {
-                    continue;
-                }
+            // A cell a gem could still go on
+            private boolean spotFree(int y) { return cell[y] == FREE || cell[y] == CROSSED; }
 
-                if (!isReachable(grid)) continue;
+            private static boolean contains(int[] a, int n, int v) {
+                for (int k = 0; k < n; k++) if (a[k] == v) return true;
+                return false;
+            }
 
-                String[] map = new String[rows];
-                for (int r = 0; r < rows; r++) map[r] = new String(grid[r]);
-                return new Level(map);
+            private boolean onEdge(int y, int d) {
+                int r = y / cols + DIRS[d].r, c = y % cols + DIRS[d].c;
+                return r < 0 || r >= rows || c < 0 || c >= cols;
             }
-            throw new RuntimeException("Failed to generate a solvable level after 10 attempts.");
-        }
-        
-        static boolean isReachable(char[][] grid) {
-            int R = grid.length, C = grid[0].length;
-            boolean[][] vis = new boolean[R][C];
-            ArrayDeque<Vec> q = new ArrayDeque<>();
 
-            for (int r = 0; r < R; r++)
-                for (int c = 0; c < C; c++)
-                    if (grid[r][c] == 'S') {
-                        q.add(new Vec(r,c));
-                        vis[r][c] = true;
+            // Crossing these cells (and turning the landing into a stop) leaves every quadrant enough
+            // free cells for the mines, blocks and stops it still has to take
+            private boolean fits(int[] used, int landing, boolean newStop) {
+                for (int q = 0; q < 4; q++) {
+                    boolean here = q == quadrant(landing);
+                    int need = used[q] + (here && cell[landing] == FREE ? 1 : 0);
+                    int reserve = MINES + BLOCKS + stopsLeft[q] - (here && newStop ? 1 : 0);
+                    if (free[q] - need < reserve) return false;
+                }
+                return true;
+            }
+
+            // GEMS of the n distinct spots, one of them crossed by the last inner slide so the plan's tail is needed
+            private void placeGems(int[] spots, int[] slideOf, int n) {
+                int last = n - 1;
+                while (last > 0 && slideOf[last - 1] == slideOf[n - 1]) last--;
+                cell[spots[last + rand.nextInt(n - last)]] = 'G';
+                for (int placed = 1; placed < GEMS; ) {
+                    int g = spots[rand.nextInt(n)];
+                    if (cell[g] != 'G') {
+                        cell[g] = 'G';
+                        placed++;
                     }
+                }
+            }
 
-            while (!q.isEmpty()) {
-                Vec v = q.poll();
-                for (Vec d : DIRS) {
-                    Vec cur = v;
-                    while (true) {
-                        Vec nxt = cur.add(d);
-                        if (nxt.r<0||nxt.c<0||nxt.r>=R||nxt.c>=C) break;
-                        if (grid[nxt.r][nxt.c]=='#' || grid[nxt.r][nxt.c]=='B') break;
-                        cur = nxt;
-                        if (!vis[cur.r][cur.c]) {
-                            vis[cur.r][cur.c] = true;
-                            q.add(cur);
+            // Puts ch on count of quadrant q's FREE cells. bias +1 prefers cells a wrong move from one of
+            // the plan's resting cells would reach, -1 avoids them, 0 is uniform.
+            private void place(int q, char ch, int count, int bias) {
+                int[] pool = new int[cell.length];
+                int n = 0;
+                for (int i = 0; i < cell.length; i++) if (cell[i] == FREE && quadrant(i) == q) pool[n++] = i;
+                for (int i = n - 1; i > 0; i--) {
+                    int j = rand.nextInt(i + 1), t = pool[i];
+                    pool[i] = pool[j];
+                    pool[j] = t;
+                }
+                if (bias != 0) {
+                    int[] reach = reach();
+                    // Stable insertion sort: the shuffle breaks ties
+                    for (int i = 1; i < n; i++) {
+                        int v = pool[i], j = i;
+                        while (j > 0 && bias * (reach[pool[j - 1]] - reach[v]) < 0) {
+                            pool[j] = pool[j - 1];
+                            j--;
                         }
-                        if (grid[cur.r][cur.c]=='O' || grid[cur.r][cur.c]=='*') break;
+                        pool[j] = v;
                     }
                 }
+                for (int k = 0; k < count; k++) cell[pool[k]] = ch;
             }
 
-            for (int r = 0; r < R; r++)
-                for (int c = 0; c < C; c++)
-                    if (grid[r][c]=='G' && !vis[r][c])
-                        return false;
+            // For every cell, how many slides from a resting cell of the plan would pass over it
+            private int[] reach() {
+                int[] reach = new int[cell.length];
+                for (int k = 0; k < restCount; k++) {
+                    for (Vec d : DIRS) {
+                        int r = rests[k] / cols + d.r, c = rests[k] % cols + d.c;
+                        for (; r >= 0 && r < rows && c >= 0 && c < cols; r += d.r, c += d.c) {
+                            int y = r * cols + c;
+                            if (stop(y) || cell[y] == '*' || cell[y] == 'B') break;
+                            reach[y]++;
+                        }
+                    }
+                }
+                return reach;
+            }
+        }
 
-            return true;
+        // Moves the Solve button clears the level in, -1 when it gets stuck: quadrants in play order, each by
+        // its own plan from the single cell the previous plan ended on, as Engine.solveByQuadrant plays it.
+        // That play is one mine-free run over the board, so a level no such run clears is rejected first
+        // without a search.
+        static int solveButtonMoves(GameState st) {
+            long[] start = Bits.create(st.grid.size);
+            Bits.set(start, st.grid.index(st.ball));
+            if (Bits.isEmpty(Solvability.finishCells(st.grid, start, st.gems, st.grid.full))) return -1;
+            return Engine.solveByQuadrant(st);
         }
 
         private static boolean balancedDistribution(char[][] grid, char ch, int total) {
@@ -1657,102 +4799,656 @@ import javax.swing.*;
             return left >= minSide && right >= minSide && top >= minSide && bottom >= minSide;
         }
 
-        private static int shortestSolutionMoves(char[][] grid) {
-            int rows = grid.length, cols = grid[0].length;
+        private static Grid toGrid(char[][] map) {
+            int R = map.length, C = map[0].length;
+            Cell[][] cells = new Cell[R][C];
+            for (int r = 0; r < R; r++)
+                for (int c = 0; c < C; c++)
+                    cells[r][c] = cellOf(map[r][c]);
+            return new Grid(cells);
+        }
 
-            int[][] gemIndex = new int[rows][cols];
-            for (int[] row : gemIndex) Arrays.fill(row, -1);
+        static final String CHARS = " #*OGSB";
+
+        // One row per line, equal widths, level characters only and exactly one start
+        static Level parse(List<String> lines, int maxSide) throws IOException {
+            if (lines.isEmpty()) throw new IOException("empty level");
+            int cols = lines.get(0).length(), starts = 0;
+            if (lines.size() > maxSide || cols < 1 || cols > maxSide) throw new IOException("unsupported size");
+            for (String line : lines) {
+                if (line.length() != cols) throw new IOException("rows have different widths");
+                for (char ch : line.toCharArray()) {
+                    if (CHARS.indexOf(ch) < 0) throw new IOException("unknown cell '" + ch + "'");
+                    if (ch == 'S') starts++;
+                }
+            }
+            if (starts != 1) throw new IOException("the level needs exactly one start");
+            return new Level(lines.toArray(new String[0]));
+        }
+
+        // Grid cell for a level character; gems live in the gem bitboard, the start is a stop
+        static Cell cellOf(char ch) {
+            switch (ch) {
+                case '#': return Cell.WALL;
+                case '*': return Cell.MINE;
+                case 'O': return Cell.STOP;
+                case 'S': return Cell.STOP;
+                case 'B': return Cell.BLOCK;
+                default: return Cell.EMPTY;
+            }
+        }
+
+        static Level currentLevelSnapshot(GameState st) {
+            int R = st.grid.rows, C = st.grid.cols;
+            String[] out = new String[R];
+            for (int r = 0; r < R; r++) {
+                StringBuilder sb = new StringBuilder(C);
+                for (int c = 0; c < C; c++) {
+                    if (st.ball.r == r && st.ball.c == c) { sb.append('S'); continue; }
+                    Cell cell = st.grid.cell(r, c);
+                    switch (cell) {
+                        case WALL: sb.append('#'); break;
+                        case MINE: sb.append('*'); break;
+                        case STOP: sb.append('O'); break;
+                        case BLOCK: sb.append('B'); break;
+                        default: sb.append(st.hasGem(r, c) ? 'G' : ' '); break;
+                    }
+                }
+                out[r] = sb.toString();
+            }
+            return new Level(out);
+        }
+    }
+
+    // ===== Game recording: level, seed and metadata, then moves packed 5 bits each =====
+    // A move is 3 bits of direction (index into DIRS) and 2 bits of mover; 12 moves fill a long.
+    static final class GameRecord {
+        static final int MAGIC = 0x494E5250; // "INRP"
+        static final int VERSION = 1;
+        static final int MOVE_BITS = 5, MOVES_PER_WORD = 12;
+
+        final String[] level;
+        final long seed;
+        final Map<String, String> meta = new LinkedHashMap<>();
+        private long[] words = new long[4];
+        private int size;
+        private int written;      // moves kept past size after an undo, so redo can restore them
+
+        GameRecord(String[] level, long seed) {
+            this.level = level.clone();
+            this.seed = seed;
+            meta.put("created", Long.toString(System.currentTimeMillis()));
+        }
 
-            int gemCount = 0;
-            int startR = -1, startC = -1;
+        int size() { return size; }
+        int dir(int i) { return (int) (words[i / MOVES_PER_WORD] >>> (i % MOVES_PER_WORD * MOVE_BITS)) & 7; }
+        Mover mover(int i) { return Mover.values()[(int) (words[i / MOVES_PER_WORD] >>> (i % MOVES_PER_WORD * MOVE_BITS + 3)) & 3]; }
 
+        void add(int dir, Mover mover) {
+            int w = size / MOVES_PER_WORD, shift = size % MOVES_PER_WORD * MOVE_BITS;
+            if (w == words.length) words = Arrays.copyOf(words, words.length * 2);
+            words[w] = (words[w] & ~(31L << shift)) | ((long) (dir | mover.ordinal() << 3) << shift);
+            written = ++size;
+        }
+
+        // Moves the end of the record back (undo) or forward again (redo)
+        void rewind(int n) {
+            if (n < 0 || n > written) throw new IllegalArgumentException("Cannot rewind record to " + n);
+            size = n;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(seed);
+            out.writeShort(meta.size());
+            for (Map.Entry<String, String> e : meta.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+            out.writeShort(level.length);
+            for (String row : level) out.writeUTF(row);
+            out.writeInt(size);
+            int used = (size + MOVES_PER_WORD - 1) / MOVES_PER_WORD;
+            for (int i = 0; i < used; i++) out.writeLong(words[i]);
+        }
+
+        static GameRecord read(DataInputStream in) throws IOException {
+            if (in.readInt() != MAGIC) throw new IOException("Not an Inertia recording");
+            int version = in.readShort();
+            if (version != VERSION) throw new IOException("Unsupported recording version " + version);
+            long seed = in.readLong();
+            Map<String, String> meta = new LinkedHashMap<>();
+            for (int n = in.readShort(); n > 0; n--) meta.put(in.readUTF(), in.readUTF());
+            String[] level = new String[in.readShort()];
+            for (int r = 0; r < level.length; r++) level[r] = in.readUTF();
+
+            GameRecord rec = new GameRecord(level, seed);
+            rec.meta.clear();
+            rec.meta.putAll(meta);
+            int size = in.readInt();
+            rec.words = new long[Math.max(4, (size + MOVES_PER_WORD - 1) / MOVES_PER_WORD)];
+            for (int i = 0; i < (size + MOVES_PER_WORD - 1) / MOVES_PER_WORD; i++) rec.words[i] = in.readLong();
+            rec.size = rec.written = size;
+            return rec;
+        }
+
+        void save(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                write(out);
+            }
+        }
+
+        static GameRecord load(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                return read(in);
+            }
+        }
+    }
+
+    // ===== Headless replay: re-simulates recordings with the same slide semantics as Engine.apply =====
+    static final class Replayer {
+        static final class Result {
+            final int moves, gemsCollected, deaths, ball;
+            final boolean completed;
+            final String error;   // null when every move was legal
+            Result(int moves, int gemsCollected, int deaths, int ball, boolean completed, String error) {
+                this.moves = moves; this.gemsCollected = gemsCollected; this.deaths = deaths;
+                this.ball = ball; this.completed = completed; this.error = error;
+            }
+            boolean valid() { return error == null; }
+        }
+
+        static final int LEVEL_ENTRIES = 256;
+
+        // Parsed levels are shared across recordings of the same board, least recently used first
+        private final Map<String, GameState> levels = new LinkedHashMap<String, GameState>(64, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, GameState> e) {
+                return size() > LEVEL_ENTRIES;
+            }
+        };
+
+        Result replay(GameRecord rec) {
+            GameState start = levels.computeIfAbsent(String.join("\n", rec.level), k -> new Level(rec.level).toGameState());
+            Grid grid = start.grid;
+            long[] gems = start.gems.clone();
+            int ball = grid.index(start.ball), deaths = 0, collected = 0;
+
+            for (int i = 0; i < rec.size(); i++) {
+                if (deaths >= Engine.MAX_DEATHS) return new Result(i, collected, deaths, ball, false, "move " + i + " after game over");
+                if (Bits.isEmpty(gems)) return new Result(i, collected, deaths, ball, true, "move " + i + " after completion");
+                int d = rec.dir(i);
+                int slide = grid.slide(ball, d);
+                if (Grid.end(slide) == ball) return new Result(i, collected, deaths, ball, false, "move " + i + " does not move");
+                collected += Bits.clearAll(gems, grid.ray(ball, d));
+                if (Grid.hitsMine(slide) && rec.mover(i) != Mover.SOLVER) deaths++;
+                ball = Grid.end(slide);
+            }
+            return new Result(rec.size(), collected, deaths, ball, Bits.isEmpty(gems), null);
+        }
+
+        // Null when the recording replays cleanly and matches the outcome stored when it was saved, else
+        // the illegal move or the stored outcome that differs; one replay either way
+        String problem(GameRecord rec) {
+            Result res = replay(rec);
+            if (!res.valid()) return res.error;
+            String diff = mismatch(rec, "result.gems", res.gemsCollected);
+            if (diff == null) diff = mismatch(rec, "result.deaths", res.deaths);
+            if (diff == null) diff = mismatch(rec, "result.ball", res.ball);
+            return diff;
+        }
+
+        private static String mismatch(GameRecord rec, String key, int actual) {
+            String expected = rec.meta.get(key);
+            if (expected == null || Integer.parseInt(expected) == actual) return null;
+            return key + " expected " + expected + ", replayed " + actual;
+        }
+
+        // java Inertia --replay file...   verifies recordings and reports throughput
+        static void run(String[] files) throws IOException {
+            List<GameRecord> recs = new ArrayList<>();
+            for (String f : files) recs.add(GameRecord.load(new File(f)));
+            Replayer replayer = new Replayer();
+            int failed = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < recs.size(); i++) {
+                String problem = replayer.problem(recs.get(i));
+                if (problem != null) {
+                    failed++;
+                    System.out.println("FAIL " + files[i] + ": " + problem);
+                }
+            }
+            double secs = Math.max(1e-9, (System.nanoTime() - t0) / 1e9);
+            System.out.printf("%d recordings, %d failed, %.0f replays/s%n", recs.size(), failed, recs.size() / secs);
+        }
+    }
+
+    // ===== Level packs: header, offset index, then levels packed at 3 bits per cell =====
+    // Opened through a read-only memory map, so a level is only decoded when it is asked for.
+    static final class LevelPack implements Closeable {
+        static final int MAGIC = 0x494E4C50; // "INLP"
+        static final int VERSION = 1;
+        static final int HEADER_BYTES = 10;  // magic, version, count
+        static final int CELL_BITS = 3, CELLS_PER_WORD = 21;
+        static final Cell[] CODES = { Cell.EMPTY, Cell.WALL, Cell.MINE, Cell.GEM, Cell.STOP, Cell.BLOCK };
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buf;
+        private final int count;
+
+        private LevelPack(FileChannel channel, MappedByteBuffer buf) throws IOException {
+            this.channel = channel;
+            this.buf = buf;
+            if (buf.getInt(0) != MAGIC) throw new IOException("Not an Inertia level pack");
+            int version = buf.getShort(4);
+            if (version != VERSION) throw new IOException("Unsupported level pack version " + version);
+            this.count = buf.getInt(6);
+        }
+
+        static LevelPack open(File file) throws IOException {
+            FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return new LevelPack(ch, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (IOException ex) {
+                ch.close();
+                throw ex;
+            }
+        }
+
+        int size() { return count; }
+
+        private int offset(int i) {
+            if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Level " + i + " of " + count);
+            return (int) buf.getLong(HEADER_BYTES + 8 * i);
+        }
+
+        long seed(int i) { return buf.getLong(offset(i) + 8); }
+
+        // Decodes level i straight from the mapped file
+        Level level(int i) {
+            int at = offset(i);
+            int rows = buf.getShort(at), cols = buf.getShort(at + 2), start = buf.getInt(at + 4);
+            long seed = buf.getLong(at + 8);
+            int cells = at + 16;
+            String[] out = new String[rows];
+            char[] row = new char[cols];
             for (int r = 0; r < rows; r++) {
                 for (int c = 0; c < cols; c++) {
-                    char ch = grid[r][c];
-                    if (ch == 'G') {
-                        gemIndex[r][c] = gemCount++;
-                    } else if (ch == 'S') {
-                        startR = r; startC = c;
-                    }
+                    int k = r * cols + c;
+                    if (k == start) { row[c] = 'S'; continue; }
+                    long word = buf.getLong(cells + 8 * (k / CELLS_PER_WORD));
+                    row[c] = symbol(CODES[(int) (word >>> (k % CELLS_PER_WORD * CELL_BITS)) & 7]);
+                }
+                out[r] = new String(row);
+            }
+            return new Level(out, seed);
+        }
+
+        GameState gameState(int i) { return level(i).toGameState(); }
+
+        @Override public void close() throws IOException { channel.close(); }
+
+        static void write(File file, List<Level> levels) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeInt(levels.size());
+                long offset = HEADER_BYTES + 8L * levels.size();
+                for (Level lv : levels) {
+                    out.writeLong(offset);
+                    offset += encodedBytes(lv);
                 }
+                if (offset > Integer.MAX_VALUE) throw new IOException("Level pack larger than 2 GB");
+                for (Level lv : levels) writeLevel(out, lv);
             }
+        }
+
+        private static long encodedBytes(Level lv) {
+            int cells = lv.rows.length * lv.rows[0].length();
+            return 16 + 8L * ((cells + CELLS_PER_WORD - 1) / CELLS_PER_WORD);
+        }
 
-            if (startR < 0 || gemCount == 0) return -1;
-            if (gemCount > 14) gemCount = 14;
+        private static void writeLevel(DataOutputStream out, Level lv) throws IOException {
+            int rows = lv.rows.length, cols = lv.rows[0].length();
+            long[] words = new long[(rows * cols + CELLS_PER_WORD - 1) / CELLS_PER_WORD];
+            int start = -1;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int k = r * cols + c;
+                    char ch = lv.rows[r].charAt(c);
+                    if (ch == 'S') start = k;
+                    words[k / CELLS_PER_WORD] |= (long) code(ch) << (k % CELLS_PER_WORD * CELL_BITS);
+                }
+            }
+            if (start < 0) throw new IOException("Level missing start 'S'");
+            out.writeShort(rows);
+            out.writeShort(cols);
+            out.writeInt(start);
+            out.writeLong(lv.seed);
+            for (long w : words) out.writeLong(w);
+        }
 
-            int fullMask = (1 << gemCount) - 1;
-            int maskSize = 1 << gemCount;
+        private static int code(char ch) {
+            switch (ch) {
+                case '#': return 1;
+                case '*': return 2;
+                case 'G': return 3;
+                case 'O': case 'S': return 4;
+                case 'B': return 5;
+                default: return 0;
+            }
+        }
 
-            boolean[][][] visited = new boolean[rows][cols][maskSize];
+        private static char symbol(Cell cell) {
+            switch (cell) {
+                case WALL: return '#';
+                case MINE: return '*';
+                case GEM: return 'G';
+                case STOP: return 'O';
+                case BLOCK: return 'B';
+                default: return ' ';
+            }
+        }
 
-            class State {
-                int r, c, mask, dist;
-                State(int r, int c, int mask, int dist) { this.r = r; this.c = c; this.mask = mask; this.dist = dist; }
+        // Seeds baseSeed, baseSeed + 1, ... through the generator; seeds it gives up on are skipped
+        static int generate(File file, int count, long baseSeed, Difficulty difficulty) throws IOException {
+            List<Level> levels = new ArrayList<>(count);
+            long lastSeed = baseSeed + 10L * count + 100;
+            for (long seed = baseSeed; levels.size() < count && seed < lastSeed; seed++) {
+                try {
+                    levels.add(Level.generateRandomLevel(seed, difficulty));
+                } catch (RuntimeException ex) {
+                    // generator exhausted its attempts for this seed
+                }
             }
+            write(file, levels);
+            return levels.size();
+        }
+    }
 
-            ArrayDeque<State> q = new ArrayDeque<>();
-            int startMask = 0;
-            if (gemIndex[startR][startC] != -1) {
-                startMask |= 1 << gemIndex[startR][startC];
+    // ===== Local solver service: loopback HTTP, bounded work queue, result cache =====
+    // Tools on the same machine post levels instead of starting a JVM per solve.
+    //   POST /solve    level rows, one per line; several levels separated by blank lines
+    //   GET  /metrics  counters, queue depth, throughput and latency percentiles
+    // Results are cached by level hash, and a level already being solved is joined rather than queued
+    // again. When the queue is full the request gets 503 with Retry-After.
+    static final class SolverService {
+        static final int CACHE_ENTRIES = 4096;
+        static final int MAX_BATCH = 256;
+        static final int MAX_SIDE = 64;
+        static final long SOLVE_TIMEOUT_SECONDS = 300;
+
+        private final HttpServer server;
+        private final ThreadPoolExecutor workers;
+        private final ExecutorService exchanges;
+        private final int queueCapacity;
+        private final long startedNanos = System.nanoTime();
+        private final AtomicLong requests = new AtomicLong(), levels = new AtomicLong(), solved = new AtomicLong(),
+                cacheHits = new AtomicLong(), rejected = new AtomicLong(), failed = new AtomicLong();
+        private final Latencies solveLatency = new Latencies(), requestLatency = new Latencies();
+
+        // Level hash -> result JSON, least recently used first; failed solves are removed
+        private final Map<String, CompletableFuture<String>> cache =
+                new LinkedHashMap<String, CompletableFuture<String>>(64, 0.75f, true) {
+                    @Override protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> e) {
+                        return size() > CACHE_ENTRIES;
+                    }
+                };
+        // Unfinished results -> requests still waiting on them; guarded by cache
+        private final Map<CompletableFuture<String>, Integer> waiters = new HashMap<>();
+
+        SolverService(int port, int threads, int queueCapacity) throws IOException {
+            this.queueCapacity = queueCapacity;
+            this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), daemon("inertia-solve"), new ThreadPoolExecutor.AbortPolicy());
+            // Exchanges block on their results, so they get threads of their own
+            this.exchanges = Executors.newFixedThreadPool(Math.max(4, 2 * threads), daemon("inertia-http"));
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/solve", ex -> handle(ex, this::solveRequest));
+            server.createContext("/metrics", ex -> handle(ex, this::metricsRequest));
+            server.setExecutor(exchanges);
+        }
+
+        private static ThreadFactory daemon(String name) {
+            return r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            };
+        }
+
+        void start() { server.start(); }
+
+        void stop() {
+            server.stop(0);
+            workers.shutdownNow();
+            exchanges.shutdownNow();
+        }
+
+        int port() { return server.getAddress().getPort(); }
+
+        // A handler's reply: status code, JSON body and an optional Retry-After
+        static final class Reply {
+            final int status;
+            final String json;
+            final boolean retry;
+            Reply(int status, String json, boolean retry) { this.status = status; this.json = json; this.retry = retry; }
+            static Reply ok(String json) { return new Reply(200, json, false); }
+            static Reply error(int status, String message) {
+                return new Reply(status, "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}", status == 503);
             }
-            visited[startR][startC][startMask] = true;
-            q.add(new State(startR, startC, startMask, 0));
+        }
 
-            while (!q.isEmpty()) {
-                State s = q.poll();
-                if (s.mask == fullMask) return s.dist;
+        private void handle(HttpExchange ex, Function<HttpExchange, Reply> handler) throws IOException {
+            Reply reply;
+            try {
+                reply = handler.apply(ex);
+            } catch (RuntimeException e) {
+                reply = Reply.error(500, String.valueOf(e));
+            }
+            byte[] body = (reply.json + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            if (reply.retry) ex.getResponseHeaders().set("Retry-After", "1");
+            ex.sendResponseHeaders(reply.status, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
 
-                for (Vec dir : DIRS) {
-                    SlideResult sr = slideForSolver(s.r, s.c, dir, toGrid(grid), gemIndex, s.mask);
-                    if (!sr.moved || sr.died) continue;
-                    if (!visited[sr.r][sr.c][sr.mask]) {
-                        visited[sr.r][sr.c][sr.mask] = true;
-                        q.add(new State(sr.r, sr.c, sr.mask, s.dist + 1));
+        private Reply solveRequest(HttpExchange ex) {
+            if (!"POST".equals(ex.getRequestMethod())) return Reply.error(405, "POST level rows to /solve");
+            long t0 = System.nanoTime();
+            requests.incrementAndGet();
+
+            List<Level> batch = new ArrayList<>();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(ex.getRequestBody(), java.nio.charset.StandardCharsets.UTF_8))) {
+                List<String> rows = new ArrayList<>();
+                for (String line = in.readLine(); ; line = in.readLine()) {
+                    if (line == null || line.isEmpty()) {
+                        if (!rows.isEmpty()) batch.add(Level.parse(rows, MAX_SIDE));
+                        rows = new ArrayList<>();
+                        if (line == null) break;
+                    } else {
+                        rows.add(line);
                     }
+                    if (batch.size() > MAX_BATCH) return Reply.error(413, "at most " + MAX_BATCH + " levels per request");
                 }
+            } catch (IOException e) {
+                return Reply.error(400, "level " + (batch.size() + 1) + ": " + e.getMessage());
             }
-            return -1;
+            if (batch.isEmpty()) return Reply.error(400, "no level in the request body");
+
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            try {
+                for (Level level : batch) results.add(submit(level));
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                return Reply.error(503, "solver queue is full");
+            }
+
+            StringBuilder sb = new StringBuilder(batch.size() > 1 ? "[" : "");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SOLVE_TIMEOUT_SECONDS);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (i > 0) sb.append(",\n ");
+                    sb.append(results.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException | CancellationException e) {
+                    for (CompletableFuture<String> r : results) r.cancel(true);
+                    return Reply.error(504, "solve timed out");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Reply.error(503, "service is stopping");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IllegalArgumentException)
+                        return Reply.error(422, "level " + (i + 1) + ": " + e.getCause().getMessage());
+                    return Reply.error(500, "level " + (i + 1) + ": " + e.getCause());
+                }
+            }
+            requestLatency.record(System.nanoTime() - t0);
+            return Reply.ok(sb.append(batch.size() > 1 ? "]" : "").toString());
         }
 
-        private static Grid toGrid(char[][] map) {
-            int R = map.length, C = map[0].length;
-            Cell[][] cells = new Cell[R][C];
-            for (int r = 0; r < R; r++) {
-                for (int c = 0; c < C; c++) {
-                    switch (map[r][c]) {
-                        case '#': cells[r][c] = Cell.WALL; break;
-                        case '*': cells[r][c] = Cell.MINE; break;
-                        case 'O': cells[r][c] = Cell.STOP; break;
-                        case 'S': cells[r][c] = Cell.STOP; break;
-                        case 'B': cells[r][c] = Cell.BLOCK; break;
-                        case 'G': cells[r][c] = Cell.EMPTY; break;
-                        default: cells[r][c] = Cell.EMPTY; break;
+        // This request's own view of the cached or in-flight result for the level, else of a newly queued
+        // solve. Cancelling the view only drops this request; the solve stops once nobody waits on it.
+        private CompletableFuture<String> submit(Level level) {
+            levels.incrementAndGet();
+            String key = hash(level.rows);
+            CompletableFuture<String> result;
+            boolean queue = false;
+            synchronized (cache) {
+                result = cache.get(key);
+                if (result != null) {
+                    cacheHits.incrementAndGet();
+                } else {
+                    result = new CompletableFuture<>();
+                    cache.put(key, result);
+                    queue = true;
+                }
+                if (!result.isDone()) waiters.merge(result, 1, Integer::sum);
+            }
+            CompletableFuture<String> out = result;
+            if (queue) {
+                Future<?> task;
+                try {
+                    task = workers.submit(() -> solve(level, key, out));
+                } catch (RejectedExecutionException e) {
+                    synchronized (cache) {
+                        cache.remove(key, out);
+                        waiters.remove(out);
                     }
+                    throw e;
                 }
+                // Cancelling the shared result stops the solve (interrupt) and drops the entry
+                out.whenComplete((json, e) -> {
+                    synchronized (cache) {
+                        waiters.remove(out);
+                        if (out.isCancelled()) cache.remove(key, out);
+                    }
+                    if (out.isCancelled()) task.cancel(true);
+                });
             }
-            return new Grid(cells);
+            CompletableFuture<String> view = out.copy();
+            view.whenComplete((json, e) -> { if (view.isCancelled()) release(out); });
+            return view;
         }
 
-        static Level currentLevelSnapshot(GameState st) {
-            int R = st.grid.rows, C = st.grid.cols;
-            String[] out = new String[R];
-            for (int r = 0; r < R; r++) {
-                StringBuilder sb = new StringBuilder(C);
-                for (int c = 0; c < C; c++) {
-                    Vec v = new Vec(r, c);
-                    if (st.ball.equals(v)) { sb.append('S'); continue; }
-                    Cell cell = st.grid.cells[r][c];
-                    switch (cell) {
-                        case WALL: sb.append('#'); break;
-                        case MINE: sb.append('*'); break;
-                        case STOP: sb.append('O'); break;
-                        case BLOCK: sb.append('B'); break;
-                        default: sb.append(st.gemPresent[r][c] ? 'G' : ' '); break;
-                    }
+        // A request stopped waiting on result; the last one to go cancels it if it is still unfinished
+        private void release(CompletableFuture<String> result) {
+            synchronized (cache) {
+                Integer n = waiters.get(result);
+                if (n == null) return;
+                if (n > 1) {
+                    waiters.put(result, n - 1);
+                    return;
                 }
-                out[r] = sb.toString();
+                // Under the lock, so no new request can pick the result up between the count and the cancel
+                result.cancel(true);
             }
-            return new Level(out);
+        }
+
+        private void solve(Level level, String key, CompletableFuture<String> out) {
+            long t0 = System.nanoTime();
+            try {
+                SolverMetrics[] metrics = new SolverMetrics[1];
+                List<Integer> plan = Engine.solveAll(level.toGameState(), m -> metrics[0] = m);
+                solveLatency.record(System.nanoTime() - t0);
+                solved.incrementAndGet();
+                StringBuilder sb = new StringBuilder("{\"level\":\"").append(key).append("\",\"solvable\":").append(plan != null);
+                if (plan != null) {
+                    sb.append(",\"moves\":").append(plan.size()).append(",\"plan\":[");
+                    for (int i = 0; i < plan.size(); i++) sb.append(i > 0 ? "," : "").append(plan.get(i));
+                    sb.append(']');
+                }
+                if (metrics[0] != null) sb.append(",\"metrics\":").append(metrics[0].toJson());
+                out.complete(sb.append('}').toString());
+            } catch (RuntimeException | OutOfMemoryError e) {
+                failed.incrementAndGet();
+                synchronized (cache) { cache.remove(key, out); }
+                out.completeExceptionally(e);
+            }
+        }
+
+        static String hash(String[] rows) {
+            try {
+                java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
+                for (String row : rows) {
+                    md.update(row.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                    md.update((byte) '\n');
+                }
+                StringBuilder hex = new StringBuilder();
+                for (byte b : md.digest()) hex.append(String.format("%02x", b));
+                return hex.toString();
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Reply metricsRequest(HttpExchange ex) {
+            if (!"GET".equals(ex.getRequestMethod())) return Reply.error(405, "GET /metrics");
+            double uptime = Math.max(1e-9, (System.nanoTime() - startedNanos) / 1e9);
+            int cached;
+            synchronized (cache) { cached = cache.size(); }
+            return Reply.ok(String.format(Locale.ROOT,
+                    "{\"uptimeSeconds\":%.1f,\"requests\":%d,\"levels\":%d,\"solved\":%d,\"cacheHits\":%d,\"cacheEntries\":%d,"
+                    + "\"rejected\":%d,\"failed\":%d,\"workers\":%d,\"active\":%d,\"queued\":%d,\"queueCapacity\":%d,"
+                    + "\"solvesPerSecond\":%.2f,\"solveLatencyMillis\":%s,\"requestLatencyMillis\":%s}",
+                    uptime, requests.get(), levels.get(), solved.get(), cacheHits.get(), cached,
+                    rejected.get(), failed.get(), workers.getMaximumPoolSize(), workers.getActiveCount(),
+                    workers.getQueue().size(), queueCapacity, solved.get() / uptime,
+                    solveLatency.toJson(), requestLatency.toJson()));
+        }
+
+        // The most recent samples in a ring; percentiles are taken over those
+        static final class Latencies {
+            static final int SAMPLES = 1024;
+            private final long[] ring = new long[SAMPLES];
+            private long count;
+
+            synchronized void record(long nanos) { ring[(int) (count++ % SAMPLES)] = nanos; }
+
+            synchronized String toJson() {
+                int n = (int) Math.min(count, SAMPLES);
+                if (n == 0) return "{\"samples\":0}";
+                long[] sorted = Arrays.copyOf(ring, n);
+                Arrays.sort(sorted);
+                return String.format(Locale.ROOT, "{\"samples\":%d,\"p50\":%.2f,\"p95\":%.2f,\"p99\":%.2f,\"max\":%.2f}",
+                        n, at(sorted, 0.50), at(sorted, 0.95), at(sorted, 0.99), sorted[n - 1] / 1e6);
+            }
+
+            private static double at(long[] sorted, double q) {
+                return sorted[Math.max(0, (int) Math.ceil(q * sorted.length) - 1)] / 1e6;   // nearest rank
+            }
+        }
+
+        // java Inertia --serve [port] [workers] [queue]
+        static void run(String[] args) throws IOException {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : 8717;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int queue = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+            SolverService service = new SolverService(port, Math.max(1, threads), Math.max(1, queue));
+            service.start();
+            System.out.printf("Solver service on http://127.0.0.1:%d (POST /solve, GET /metrics), %d workers, queue %d%n",
+                    service.port(), Math.max(1, threads), Math.max(1, queue));
         }
     }
 }
\ No newline at end of file